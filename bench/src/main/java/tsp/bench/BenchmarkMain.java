@@ -0,0 +1,43 @@
+package tsp.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the allocation
+ * rate and bytes allocated per operation, and writes the results as JSON so
+ * runs of different versions can be compared.  Takes the usual JMH command
+ * line, which can pick the benchmarks, add profilers or choose another
+ * results file or format.
+ */
+public final class BenchmarkMain {
+  private static final String DEFAULT_RESULT = "jmh-result.json";
+  
+  private BenchmarkMain() {
+  }
+  
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    if (cmd.shouldHelp()) {
+      cmd.showHelp();
+      return;
+    }
+    if (cmd.shouldList()) {
+      new Runner(cmd).list();
+      return;
+    }
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd)
+            .addProfiler(GCProfiler.class);
+    if (!cmd.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!cmd.getResult().hasValue()) {
+      options.result(DEFAULT_RESULT);
+    }
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,59 @@
+package tsp.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looks up distances between random pairs of cities.  The pairs are chosen
+ * up front, so the benchmark measures the lookup and not the random
+ * numbers; larger tables no longer fit in the caches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CityTableBenchmark {
+  // pairs looked up per operation
+  private static final int PAIRS = 1024;
+  
+  @Param({"100", "1000", "10000"})
+  public int numCities;
+  
+  private Object table;
+  private int[] from;
+  private int[] to;
+  
+  @Setup
+  public void setUp() throws Throwable {
+    table = Tsp.generateTable(numCities);
+    SplittableRandom rand = new SplittableRandom(1);
+    from = new int[PAIRS];
+    to = new int[PAIRS];
+    for (int i = 0; i < PAIRS; i++) {
+      from[i] = rand.nextInt(numCities);
+      to[i] = rand.nextInt(numCities);
+    }
+  }
+  
+  @Benchmark
+  public int getDistance() throws Throwable {
+    int total = 0;
+    for (int i = 0; i < PAIRS; i++) {
+      total += Tsp.getDistance(table, from[i], to[i]);
+    }
+    return total;
+  }
+}
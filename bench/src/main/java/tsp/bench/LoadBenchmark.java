@@ -0,0 +1,87 @@
+package tsp.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loads a table from each of the file formats.  The file is written once
+ * per trial into a temporary file, so repeated loads come from the page
+ * cache and the benchmark measures parsing rather than the disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+  @Param({"100", "1000", "4000"})
+  public int numCities;
+  
+  @Param({"text", "binary", "tsplib"})
+  public String format;
+  
+  private File file;
+  
+  @Setup
+  public void setUp() throws Throwable {
+    file = File.createTempFile("cities", format.equals("binary")
+            ? ".tsb" : ".dat");
+    switch (format) {
+      case "text":
+        Tsp.saveTable(Tsp.generateTable(numCities), file.getPath());
+        break;
+      case "binary":
+        Tsp.saveTableBinary(Tsp.generateTable(numCities), file.getPath());
+        break;
+      default:
+        writeTsplib(file, numCities);
+        break;
+    }
+  }
+  
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+  
+  @Benchmark
+  public Object loadFromFile() throws Throwable {
+    return Tsp.loadTable(file.getPath());
+  }
+  
+  /**
+   * Writes random coordinates as a TSPLIB EUC_2D file.
+   */
+  private static void writeTsplib(File file, int numCities)
+          throws IOException {
+    SplittableRandom rand = new SplittableRandom(1);
+    try (PrintWriter pw = new PrintWriter(file)) {
+      pw.write("NAME : random\n");
+      pw.write("TYPE : TSP\n");
+      pw.write("DIMENSION : " + numCities + "\n");
+      pw.write("EDGE_WEIGHT_TYPE : EUC_2D\n");
+      pw.write("NODE_COORD_SECTION\n");
+      for (int i = 1; i <= numCities; i++) {
+        pw.write(i + " " + rand.nextInt(100000) + " "
+                + rand.nextInt(100000) + "\n");
+      }
+      pw.write("EOF\n");
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package tsp.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evolves a population one generation at a time.  The population keeps
+ * evolving across operations, as it does in a real run, with a fixed seed
+ * so every fork follows the same run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PopulationBenchmark {
+  @Param({"100", "1000"})
+  public int numCities;
+  
+  @Param({"50", "200"})
+  public int populationSize;
+  
+  private Object population;
+  
+  @Setup
+  public void setUp() throws Throwable {
+    population = Tsp.newPopulation(Tsp.generateTable(numCities),
+            populationSize, 0.1, 1);
+  }
+  
+  @Benchmark
+  public Object evolve() throws Throwable {
+    Tsp.evolve(population, 1);
+    return population;
+  }
+}
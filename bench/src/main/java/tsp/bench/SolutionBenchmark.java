@@ -0,0 +1,66 @@
+package tsp.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a whole tour, and the crossover and mutation operators that
+ * keep the fitness up to date without measuring it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SolutionBenchmark {
+  @Param({"100", "1000", "10000"})
+  public int numCities;
+  
+  private Object parentA;
+  private Object parentB;
+  private Object child;
+  private SplittableRandom rand;
+  
+  @Setup
+  public void setUp() throws Throwable {
+    Object table = Tsp.generateTable(numCities);
+    rand = new SplittableRandom(1);
+    parentA = Tsp.newSolution(table);
+    parentB = Tsp.newSolution(table);
+    child = Tsp.newSolution(table);
+    for (Object solution : new Object[] {parentA, parentB, child}) {
+      Tsp.generateSolution(solution, rand);
+      Tsp.calculateFitness(solution);
+    }
+  }
+  
+  @Benchmark
+  public int getDistance() throws Throwable {
+    return Tsp.tourDistance(parentA);
+  }
+  
+  @Benchmark
+  public Object cross() throws Throwable {
+    Tsp.cross(child, parentA, parentB, rand);
+    return child;
+  }
+  
+  @Benchmark
+  public Object mutate() throws Throwable {
+    // mutating the same tour over and over keeps it random
+    Tsp.mutate(child, rand);
+    return child;
+  }
+}
@@ -0,0 +1,184 @@
+package tsp.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.SplittableRandom;
+
+/**
+ * Calls into the solver, whose classes are in the unnamed package.  JMH
+ * only accepts benchmarks in a named package, and Java code in a named
+ * package cannot refer to the unnamed one, so the calls go through method
+ * handles.  The handles are constants, so the JIT inlines them like direct
+ * calls; tables, solutions and populations are passed as Object.
+ */
+final class Tsp {
+  private static final MethodHandle GENERATE_TABLE = method("CityTable",
+          "generateRandom", true, "CityTable", int.class);
+  private static final MethodHandle LOAD_TABLE = method("CityTable",
+          "loadFromFile", true, "CityTable", String.class);
+  private static final MethodHandle SAVE_TABLE = method("CityTable", "save",
+          false, void.class, String.class);
+  private static final MethodHandle SAVE_TABLE_BINARY = method("CityTable",
+          "saveBinary", false, void.class, String.class);
+  private static final MethodHandle GET_DISTANCE = method("CityTable",
+          "getDistance", false, int.class, int.class, int.class);
+  
+  private static final MethodHandle NEW_SOLUTION = constructor("Solution",
+          "CityTable");
+  private static final MethodHandle GENERATE_SOLUTION = method("Solution",
+          "generateRandom", false, void.class, SplittableRandom.class);
+  private static final MethodHandle CALCULATE_FITNESS = method("Solution",
+          "calculateFitness", false, void.class);
+  private static final MethodHandle TOUR_DISTANCE = method("Solution",
+          "getDistance", false, int.class);
+  private static final MethodHandle CROSS = method("Solution", "cross",
+          false, void.class, "Solution", "Solution", SplittableRandom.class);
+  private static final MethodHandle MUTATE = method("Solution", "mutate",
+          false, void.class, SplittableRandom.class);
+  
+  private static final MethodHandle NEW_POPULATION = constructor(
+          "Population", "CityTable", int.class, double.class, long.class);
+  private static final MethodHandle EVOLVE = method("Population", "evolve",
+          false, void.class, int.class);
+  
+  private Tsp() {
+  }
+  
+  static Object generateTable(int numCities) throws Throwable {
+    return (Object)GENERATE_TABLE.invokeExact(numCities);
+  }
+  
+  static Object loadTable(String path) throws Throwable {
+    return (Object)LOAD_TABLE.invokeExact(path);
+  }
+  
+  static void saveTable(Object table, String path) throws Throwable {
+    SAVE_TABLE.invokeExact(table, path);
+  }
+  
+  static void saveTableBinary(Object table, String path) throws Throwable {
+    SAVE_TABLE_BINARY.invokeExact(table, path);
+  }
+  
+  static int getDistance(Object table, int cityA, int cityB)
+          throws Throwable {
+    return (int)GET_DISTANCE.invokeExact(table, cityA, cityB);
+  }
+  
+  static Object newSolution(Object table) throws Throwable {
+    return (Object)NEW_SOLUTION.invokeExact(table);
+  }
+  
+  static void generateSolution(Object solution, SplittableRandom rand)
+          throws Throwable {
+    GENERATE_SOLUTION.invokeExact(solution, rand);
+  }
+  
+  static void calculateFitness(Object solution) throws Throwable {
+    CALCULATE_FITNESS.invokeExact(solution);
+  }
+  
+  static int tourDistance(Object solution) throws Throwable {
+    return (int)TOUR_DISTANCE.invokeExact(solution);
+  }
+  
+  static void cross(Object child, Object parentA, Object parentB,
+          SplittableRandom rand) throws Throwable {
+    CROSS.invokeExact(child, parentA, parentB, rand);
+  }
+  
+  static void mutate(Object solution, SplittableRandom rand)
+          throws Throwable {
+    MUTATE.invokeExact(solution, rand);
+  }
+  
+  static Object newPopulation(Object table, int size, double mutationRate,
+          long seed) throws Throwable {
+    return (Object)NEW_POPULATION.invokeExact(table, size, mutationRate,
+            seed);
+  }
+  
+  static void evolve(Object population, int generations) throws Throwable {
+    EVOLVE.invokeExact(population, generations);
+  }
+  
+  /**
+   * Finds a public method.
+   * @param owner The name of a class in the unnamed package.
+   * @param name
+   * @param isStatic
+   * @param returnType A Class, or the name of a class in the unnamed
+   * package.
+   * @param parameterTypes Classes, or names of classes in the unnamed
+   * package.
+   * @return A handle taking and returning Object in place of the classes of
+   * the unnamed package.
+   */
+  private static MethodHandle method(String owner, String name,
+          boolean isStatic, Object returnType, Object... parameterTypes) {
+    try {
+      MethodType type = MethodType.methodType(type(returnType),
+              types(parameterTypes));
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      MethodHandle handle = isStatic
+              ? lookup.findStatic(Class.forName(owner), name, type)
+              : lookup.findVirtual(Class.forName(owner), name, type);
+      return erase(handle);
+    }
+    catch (ReflectiveOperationException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+  
+  /**
+   * Finds a public constructor, see {@link #method}.
+   */
+  private static MethodHandle constructor(String owner,
+          Object... parameterTypes) {
+    try {
+      MethodType type = MethodType.methodType(void.class,
+              types(parameterTypes));
+      return erase(MethodHandles.publicLookup().findConstructor(
+              Class.forName(owner), type));
+    }
+    catch (ReflectiveOperationException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+  
+  /**
+   * Replaces the classes of the unnamed package with Object.
+   */
+  private static MethodHandle erase(MethodHandle handle) {
+    MethodType type = handle.type();
+    for (int i = 0; i < type.parameterCount(); i++) {
+      if (isUnnamed(type.parameterType(i))) {
+        type = type.changeParameterType(i, Object.class);
+      }
+    }
+    if (isUnnamed(type.returnType())) {
+      type = type.changeReturnType(Object.class);
+    }
+    return handle.asType(type);
+  }
+  
+  private static boolean isUnnamed(Class<?> type) {
+    return !type.isPrimitive() && !type.isArray()
+            && type.getName().indexOf('.') < 0;
+  }
+  
+  private static Class<?>[] types(Object[] types)
+          throws ClassNotFoundException {
+    Class<?>[] result = new Class<?>[types.length];
+    for (int i = 0; i < types.length; i++) {
+      result[i] = type(types[i]);
+    }
+    return result;
+  }
+  
+  private static Class<?> type(Object type) throws ClassNotFoundException {
+    return type instanceof Class ? (Class<?>)type
+            : Class.forName((String)type);
+  }
+}
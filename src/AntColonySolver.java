@@ -0,0 +1,310 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Solves with the MAX-MIN Ant System.  Each iteration a colony of ants
+ * builds tours city by city, choosing among a city's nearest neighbours
+ * with a chance weighted by the pheromone on the edge and by how short it
+ * is.  Then the pheromone evaporates and the best tour lays more on its
+ * edges, kept between a lower and upper limit so the search does not
+ * stall.  Pheromone is only kept for the edges to each city's nearest
+ * neighbours, so memory is linear in the number of cities.
+ *
+ * Ants build their tours in parallel, each with its own buffers, and the
+ * pheromone is only changed once every ant has finished, so the ants never
+ * contend for it.
+ */
+public class AntColonySolver implements Solver {
+  // importance of the edge length against the pheromone
+  private static final double BETA = 2.0;
+  // iterations between laying pheromone on the best tour so far rather than
+  // the best of the iteration
+  private static final int GLOBAL_BEST_INTERVAL = 10;
+  
+  private final int iterations;
+  private final long seed;
+  private int ants = 25;
+  private int neighbours = 20;
+  private double evaporation = 0.02;
+  private boolean localSearch = true;
+  
+  /**
+   * Creates the solver.
+   * @param iterations How many times the colony builds tours.
+   * @param seed
+   */
+  public AntColonySolver(int iterations, long seed) {
+    if (iterations <= 0) {
+      throw new IllegalArgumentException("iterations must be positive");
+    }
+    this.iterations = iterations;
+    this.seed = seed;
+  }
+  
+  /**
+   * Sets how many ants build a tour each iteration.  The default is 25.
+   * @param ants
+   */
+  public void setAnts(int ants) {
+    if (ants <= 0) {
+      throw new IllegalArgumentException("ants must be > 0");
+    }
+    this.ants = ants;
+  }
+  
+  /**
+   * Sets how many nearest neighbours of each city the ants choose from.
+   * Other cities are only chosen, nearest first, once every neighbour has
+   * been visited.  The default is 20.
+   * @param neighbours
+   */
+  public void setNeighbours(int neighbours) {
+    if (neighbours <= 0) {
+      throw new IllegalArgumentException("neighbours must be > 0");
+    }
+    this.neighbours = neighbours;
+  }
+  
+  /**
+   * Sets the part of the pheromone that evaporates each iteration.  The
+   * default is 0.02.
+   * @param evaporation
+   */
+  public void setEvaporation(double evaporation) {
+    if (evaporation <= 0.0 || evaporation > 1.0) {
+      throw new IllegalArgumentException(
+              "evaporation must be a percentage (0.0,1.0]");
+    }
+    this.evaporation = evaporation;
+  }
+  
+  /**
+   * Sets whether each ant's tour is improved with 2-opt and Or-opt before
+   * the pheromone is laid.  Only used for symmetric tables.  The default is
+   * true.
+   * @param localSearch
+   */
+  public void setLocalSearch(boolean localSearch) {
+    this.localSearch = localSearch;
+  }
+  
+  /**
+   *
+   * @return
+   */
+  public long getSeed() {
+    return seed;
+  }
+  
+  @Override
+  public Solution solve(CityTable cities) {
+    // too small for the moves, but small enough to solve exactly
+    if (cities.getNumCities() < 8) {
+      return new HeldKarpSolver().solve(cities);
+    }
+    return new Colony(cities).run();
+  }
+  
+  /**
+   * The state of one run: the pheromone and the ants.
+   */
+  private final class Colony {
+    final CityTable cities;
+    final int n;
+    final NeighbourLists lists;
+    final int k;
+    final boolean symmetric;
+    // pheromone on the edge from each city to its neighbours, by rank
+    final float[] pheromone;
+    // the length part of the weights, by rank like pheromone
+    final float[] closeness;
+    // pheromone times closeness, what the ants choose by
+    final float[] weight;
+    final Ant[] colony;
+    final Solution best;
+    
+    Colony(CityTable cities) {
+      this.cities = cities;
+      n = cities.getNumCities();
+      lists = cities.getNearestNeighbours(neighbours);
+      k = lists.size();
+      symmetric = cities.isSymmetric();
+      pheromone = new float[n * k];
+      closeness = new float[n * k];
+      weight = new float[n * k];
+      for (int city = 0; city < n; city++) {
+        for (int r = 0; r < k; r++) {
+          int d = cities.getDistanceUnchecked(city, lists.get(city, r));
+          closeness[city * k + r] =
+                  (float)Math.pow(1.0 / Math.max(d, 0.5), BETA);
+        }
+      }
+      
+      SplittableRandom rand = new SplittableRandom(seed);
+      colony = new Ant[ants];
+      for (int i = 0; i < ants; i++) {
+        colony[i] = new Ant(rand.split());
+      }
+      
+      // start every edge at the upper limit for a nearest neighbour tour
+      best = new Solution(cities, Construction.nearestNeighbour(cities,
+              lists, 0));
+      Arrays.fill(pheromone, maxPheromone());
+      updateWeights();
+    }
+    
+    Solution run() {
+      SolverPhaseEvent phase = Events.startPhase("ant colony", "iterate",
+              n);
+      for (int it = 1; it <= iterations; it++) {
+        IntStream.range(0, colony.length).parallel()
+                .forEach(i -> colony[i].buildTour());
+        
+        Solution iterationBest = colony[0].tour;
+        for (Ant ant : colony) {
+          if (ant.tour.getFitness() < iterationBest.getFitness()) {
+            iterationBest = ant.tour;
+          }
+        }
+        if (iterationBest.getFitness() < best.getFitness()) {
+          best.copyFrom(iterationBest);
+        }
+        layPheromone(it % GLOBAL_BEST_INTERVAL == 0 ? best : iterationBest);
+      }
+      Events.finishPhase(phase, best.getFitness());
+      return new Solution(best);
+    }
+    
+    float maxPheromone() {
+      return (float)(1.0 / (evaporation * Math.max(best.getFitness(), 1)));
+    }
+    
+    /**
+     * Evaporates the pheromone on every edge and lays more on the edges of
+     * a tour, keeping it within the limits.
+     */
+    void layPheromone(Solution tour) {
+      final float max = maxPheromone();
+      final float min = max / (2 * n);
+      final float keep = (float)(1.0 - evaporation);
+      for (int i = 0; i < pheromone.length; i++) {
+        pheromone[i] = Math.max(min, pheromone[i] * keep);
+      }
+      
+      final float amount = 1.0f / Math.max(tour.getFitness(), 1);
+      for (int city = 0; city < n; city++) {
+        int next = tour.next(city);
+        deposit(city, next, amount, max);
+        if (symmetric) {
+          deposit(next, city, amount, max);
+        }
+      }
+      updateWeights();
+    }
+    
+    void deposit(int from, int to, float amount, float max) {
+      for (int r = 0; r < k; r++) {
+        if (lists.get(from, r) == to) {
+          int i = from * k + r;
+          pheromone[i] = Math.min(max, pheromone[i] + amount);
+          return;
+        }
+      }
+    }
+    
+    void updateWeights() {
+      for (int i = 0; i < weight.length; i++) {
+        weight[i] = pheromone[i] * closeness[i];
+      }
+    }
+    
+    /**
+     * One ant, with its own buffers so ants can build tours in parallel.
+     */
+    private final class Ant {
+      final SplittableRandom rand;
+      final Solution tour;
+      final LocalSearch search;
+      final int[] path = new int[n];
+      // the cities not visited yet, and where each city is in that list or
+      // -1 once visited
+      final int[] unvisited = new int[n];
+      final int[] where = new int[n];
+      final float[] chances = new float[k];
+      
+      Ant(SplittableRandom rand) {
+        this.rand = rand;
+        tour = new Solution(cities);
+        search = localSearch && symmetric ? new LocalSearch(cities, lists)
+                : null;
+      }
+      
+      void buildTour() {
+        for (int i = 0; i < n; i++) {
+          unvisited[i] = i;
+          where[i] = i;
+        }
+        int remaining = n;
+        int city = rand.nextInt(n);
+        
+        for (int step = 0; ; step++) {
+          path[step] = city;
+          // swap the city with the last unvisited one
+          int last = unvisited[--remaining];
+          unvisited[where[city]] = last;
+          where[last] = where[city];
+          where[city] = -1;
+          if (remaining == 0) {
+            break;
+          }
+          city = choose(city, remaining);
+        }
+        
+        tour.setTour(path);
+        if (search != null) {
+          search.improve(tour);
+        }
+      }
+      
+      /**
+       * Chooses the next city among the unvisited neighbours, or the
+       * nearest unvisited city if every neighbour has been visited.
+       */
+      private int choose(int from, int remaining) {
+        float total = 0;
+        for (int r = 0; r < k; r++) {
+          float chance = where[lists.get(from, r)] < 0
+                  ? 0.0f : weight[from * k + r];
+          chances[r] = chance;
+          total += chance;
+        }
+        if (total > 0) {
+          float pick = (float)(rand.nextDouble() * total);
+          for (int r = 0; r < k; r++) {
+            pick -= chances[r];
+            if (pick < 0 && chances[r] > 0) {
+              return lists.get(from, r);
+            }
+          }
+          // rounding left a little over, take the last candidate
+          for (int r = k - 1; r >= 0; r--) {
+            if (chances[r] > 0) {
+              return lists.get(from, r);
+            }
+          }
+        }
+        
+        int nearest = unvisited[0];
+        for (int i = 1; i < remaining; i++) {
+          int city = unvisited[i];
+          if (cities.getDistanceUnchecked(from, city)
+                  < cities.getDistanceUnchecked(from, nearest)) {
+            nearest = city;
+          }
+        }
+        return nearest;
+      }
+    }
+  }
+}
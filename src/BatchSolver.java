@@ -0,0 +1,483 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import util.Timer;
+
+/**
+ * Solves many tables without the menu, writing one JSON object per line for
+ * each table as it finishes.  Tables are read and results written on a pool
+ * of I/O threads, and solved on a fork/join pool with one thread per job.
+ * The solvers' own fork/join tasks and parallel streams run on that pool
+ * too, and simulated annealing runs a single chain, so the number of jobs
+ * bounds the processors used.  Only a few tables more than there are jobs
+ * are loaded at once, so the number of files does not change how much
+ * memory is used.
+ */
+final class BatchSolver {
+  // tables loaded ahead of the solving threads, per job
+  private static final int READ_AHEAD = 2;
+  private static final int DEFAULT_IO_THREADS = 4;
+  
+  private final String solverName;
+  private final Solvers.Settings settings;
+  private final long seed;
+  private int jobs = Runtime.getRuntime().availableProcessors();
+  private int ioThreads = DEFAULT_IO_THREADS;
+  private boolean writeTours = true;
+  private CityTable.Symmetry symmetry = CityTable.Symmetry.DETECT;
+  private int rowCache = 0;
+  
+  /**
+   * Creates the batch.
+   * @param solverName One of {@link Solvers#NAMES}.
+   * @param settings
+   * @param seed The seeds of the solvers are drawn from this, in the order
+   * of the tables.
+   */
+  BatchSolver(String solverName, Solvers.Settings settings, long seed) {
+    if (!Solvers.NAMES.contains(solverName)) {
+      throw new IllegalArgumentException("Unknown solver " + solverName
+              + ", expected one of " + Solvers.NAMES);
+    }
+    this.solverName = solverName;
+    this.settings = settings;
+    this.seed = seed;
+  }
+  
+  /**
+   * Sets how many tables are solved at once.  Defaults to the number of
+   * processors.
+   * @param jobs
+   */
+  void setJobs(int jobs) {
+    if (jobs <= 0) {
+      throw new IllegalArgumentException("jobs <= 0");
+    }
+    this.jobs = jobs;
+  }
+  
+  /**
+   * Sets how many threads read tables and write results.
+   * @param threads
+   */
+  void setIoThreads(int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("threads <= 0");
+    }
+    ioThreads = threads;
+  }
+  
+  /**
+   * Sets whether the tours are written, or only their distances.
+   * @param writeTours
+   */
+  void setWriteTours(boolean writeTours) {
+    this.writeTours = writeTours;
+  }
+  
+  /**
+   * Sets how the tables are stored, see {@link CityTable.Symmetry}.
+   * Declaring them symmetric skips the check for symmetry.
+   * @param symmetry
+   */
+  void setSymmetry(CityTable.Symmetry symmetry) {
+    this.symmetry = symmetry;
+  }
+  
+  /**
+   * Sets how many rows of distances are cached for tables that compute
+   * their distances, see {@link CityTable#setRowCache(int)}.
+   * @param rows The number of rows, or 0 for none.
+   */
+  void setRowCache(int rows) {
+    if (rows < 0) {
+      throw new IllegalArgumentException("rows < 0");
+    }
+    rowCache = rows;
+  }
+  
+  /**
+   * Finds the tables to solve.
+   * @param path A directory, whose files are all solved, or a manifest
+   * listing one file per line.  Blank lines and lines starting with # are
+   * skipped, and relative paths are relative to the manifest.
+   * @return
+   * @throws IOException
+   */
+  static List<String> listTables(String path) throws IOException {
+    Path source = Paths.get(path);
+    List<String> tables = new ArrayList<>();
+    if (Files.isDirectory(source)) {
+      try (Stream<Path> files = Files.list(source)) {
+        files.filter(Files::isRegularFile)
+                .filter(f -> !f.getFileName().toString().startsWith("."))
+                .forEach(f -> tables.add(f.toString()));
+      }
+      Collections.sort(tables);
+    }
+    else {
+      for (String line : Files.readAllLines(source, StandardCharsets.UTF_8)) {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          tables.add(source.resolveSibling(line).toString());
+        }
+      }
+    }
+    return tables;
+  }
+  
+  /**
+   * Solves every table, returning once all the results are written.
+   * @param tables
+   * @param out Receives one line per table, in the order they finish.
+   * @return The number of tables that could not be solved.
+   * @throws IOException If writing a result failed.
+   * @throws InterruptedException
+   */
+  int solveAll(List<String> tables, Writer out)
+          throws IOException, InterruptedException {
+    ExecutorService io = Executors.newFixedThreadPool(ioThreads,
+            daemon("batch-io"));
+    ForkJoinPool cpu = new ForkJoinPool(jobs, pool -> {
+      ForkJoinWorkerThread t =
+              ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      t.setName("batch-solve-" + t.getPoolIndex());
+      return t;
+    }, null, false);
+    Output output = new Output(out);
+    AtomicInteger failed = new AtomicInteger();
+    int permits = jobs * READ_AHEAD + ioThreads;
+    Semaphore inFlight = new Semaphore(permits);
+    SplittableRandom seeds = new SplittableRandom(seed);
+    
+    try {
+      for (String path : tables) {
+        inFlight.acquire();
+        Job job = new Job(path, seeds.nextLong());
+        CompletableFuture.supplyAsync(job::load, io)
+                .thenApplyAsync(Job::solve, cpu)
+                .thenAcceptAsync(done -> {
+                  if (done.failed) {
+                    failed.incrementAndGet();
+                  }
+                  output.write(done.result);
+                }, io)
+                .whenComplete((v, ex) -> {
+                  try {
+                    if (ex != null) {
+                      // an error the stages do not catch still gets a line
+                      failed.incrementAndGet();
+                      job.fail(String.valueOf(
+                              ex instanceof CompletionException
+                              && ex.getCause() != null ? ex.getCause() : ex));
+                      output.write(job.result);
+                    }
+                  }
+                  finally {
+                    inFlight.release();
+                  }
+                });
+      }
+      // every permit is back once the last result is written
+      inFlight.acquire(permits);
+    }
+    finally {
+      io.shutdownNow();
+      cpu.shutdownNow();
+    }
+    output.rethrow();
+    return failed.get();
+  }
+  
+  /**
+   * Runs a batch from the command line.
+   * @param args The directory or manifest of tables, then the options.
+   * @return The exit status: 0 if every table was solved, 1 if some failed
+   * and 2 if the batch could not run.
+   */
+  static int run(String[] args) {
+    if (args.length < 1 || args[0].startsWith("--")) {
+      printUsage();
+      return 2;
+    }
+    
+    String solverName = "auto";
+    String outputPath = null;
+    long seed = System.nanoTime();
+    Solvers.Settings settings = new Solvers.Settings();
+    // the chains would only take turns on the jobs' threads
+    settings.setChains(1);
+    Integer jobs = null;
+    Integer ioThreads = null;
+    boolean writeTours = true;
+    CityTable.Symmetry symmetry = CityTable.Symmetry.DETECT;
+    Integer rowCache = null;
+    try {
+      for (int i = 1; i < args.length; i++) {
+        String option = args[i];
+        if (option.equals("--no-tour")) {
+          writeTours = false;
+          continue;
+        }
+        if (option.equals("--symmetric")) {
+          symmetry = CityTable.Symmetry.SYMMETRIC;
+          continue;
+        }
+        if (i + 1 == args.length) {
+          throw new IllegalArgumentException("Missing value for " + option);
+        }
+        String value = args[++i];
+        switch (option) {
+          case "--solver":
+            solverName = value;
+            break;
+          case "--time":
+            settings.setTimeLimitMillis(
+                    (long)(Double.parseDouble(value) * 1000));
+            break;
+          case "--generations":
+            settings.setGenerations(Integer.parseInt(value));
+            break;
+          case "--iterations":
+            settings.setIterations(Integer.parseInt(value));
+            break;
+          case "--mutation-rate":
+            settings.setMutationRate(Double.parseDouble(value));
+            break;
+          case "--stagnation":
+            settings.setStagnation(Integer.parseInt(value));
+            break;
+          case "--jobs":
+            jobs = Integer.parseInt(value);
+            break;
+          case "--io-threads":
+            ioThreads = Integer.parseInt(value);
+            break;
+          case "--seed":
+            seed = Long.parseLong(value);
+            break;
+          case "--row-cache":
+            rowCache = Integer.parseInt(value);
+            break;
+          case "--output":
+            outputPath = value;
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option " + option);
+        }
+      }
+      
+      BatchSolver batch = new BatchSolver(solverName, settings, seed);
+      if (jobs != null) {
+        batch.setJobs(jobs);
+      }
+      if (ioThreads != null) {
+        batch.setIoThreads(ioThreads);
+      }
+      batch.setWriteTours(writeTours);
+      batch.setSymmetry(symmetry);
+      if (rowCache != null) {
+        batch.setRowCache(rowCache);
+      }
+      
+      List<String> tables = listTables(args[0]);
+      System.err.println("Solving " + tables.size() + " tables, seed: "
+              + seed);
+      OutputStream stream = outputPath == null ? System.out
+              : new FileOutputStream(outputPath);
+      Writer out = new BufferedWriter(new OutputStreamWriter(stream,
+              StandardCharsets.UTF_8));
+      int failed;
+      try {
+        failed = batch.solveAll(tables, out);
+      }
+      finally {
+        if (outputPath == null) {
+          out.flush();
+        }
+        else {
+          out.close();
+        }
+      }
+      System.err.println("Solved " + (tables.size() - failed) + " of "
+              + tables.size() + " tables");
+      return failed == 0 ? 0 : 1;
+    }
+    catch (NumberFormatException ex) {
+      System.err.println("Invalid number: " + ex.getMessage());
+    }
+    catch (IllegalArgumentException ex) {
+      System.err.println(ex.getMessage());
+    }
+    catch (IOException ex) {
+      System.err.println("Error: " + ex.getMessage());
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      System.err.println("Interrupted");
+    }
+    return 2;
+  }
+  
+  private static void printUsage() {
+    System.err.println("Usage: TravelingSalesman --batch <directory or "
+            + "manifest> [options]");
+    System.err.println("  --solver <name>        one of " + Solvers.NAMES
+            + " (auto)");
+    System.err.println("  --time <seconds>       time limit per table (10)");
+    System.err.println("  --generations <n>      genetic algorithm "
+            + "generations (1000)");
+    System.err.println("  --iterations <n>       ant colony iterations "
+            + "(200)");
+    System.err.println("  --mutation-rate <r>    genetic algorithm "
+            + "mutation rate (0.1)");
+    System.err.println("  --stagnation <n>       stop the genetic algorithm "
+            + "after n generations");
+    System.err.println("                         without improvement (0 for "
+            + "never)");
+    System.err.println("  --jobs <n>             tables solved at once "
+            + "(processors)");
+    System.err.println("  --io-threads <n>       threads reading tables ("
+            + DEFAULT_IO_THREADS + ")");
+    System.err.println("  --seed <n>             seed the solvers' seeds "
+            + "are drawn from");
+    System.err.println("  --output <file>        write results to a file "
+            + "instead of stdout");
+    System.err.println("  --no-tour              leave the tours out of "
+            + "the results");
+    System.err.println("  --row-cache <rows>     rows of distances cached "
+            + "for coordinate tables (0)");
+    System.err.println("  --symmetric            trust the tables to be "
+            + "symmetric, keeping only");
+    System.err.println("                         the lower triangle");
+  }
+  
+  private static ThreadFactory daemon(String name) {
+    return r -> {
+      Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    };
+  }
+  
+  /**
+   * One table, taken from its file to its result line.
+   */
+  private final class Job {
+    final String path;
+    final long seed;
+    CityTable cities;
+    String result;
+    boolean failed;
+    
+    Job(String path, long seed) {
+      this.path = path;
+      this.seed = seed;
+    }
+    
+    Job load() {
+      try {
+        cities = CityTable.load(path, symmetry);
+        if (rowCache > 0) {
+          cities.setRowCache(rowCache);
+        }
+      }
+      catch (IOException | CityTableFormatException | RuntimeException
+              | OutOfMemoryError ex) {
+        fail(ex.toString());
+      }
+      return this;
+    }
+    
+    Job solve() {
+      if (failed) {
+        return this;
+      }
+      // a failed solve must not stop the rest of the batch
+      try {
+        String name = Solvers.resolve(solverName, cities);
+        Solver solver = Solvers.create(name, cities, settings, seed);
+        Timer timer = new Timer();
+        timer.start();
+        Solution best = solver.solve(cities);
+        timer.stop();
+        
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"file\":");
+        Json.quote(sb, path);
+        Json.appendSolution(sb, name, best, seed,
+                timer.elapsedNanoSec() / 1000000, writeTours);
+        result = sb.append('}').toString();
+      }
+      catch (RuntimeException | OutOfMemoryError ex) {
+        fail(ex.toString());
+      }
+      cities = null;
+      return this;
+    }
+    
+    private void fail(String message) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\"file\":");
+      Json.quote(sb, path);
+      sb.append(",\"error\":");
+      Json.quote(sb, message);
+      result = sb.append('}').toString();
+      failed = true;
+    }
+  }
+  
+  /**
+   * Writes result lines from any thread, keeping the first error to be
+   * thrown once the batch is done.
+   */
+  private static final class Output {
+    private final Writer out;
+    private IOException error;
+    
+    Output(Writer out) {
+      this.out = out;
+    }
+    
+    synchronized void write(String line) {
+      if (error != null) {
+        return;
+      }
+      try {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+      }
+      catch (IOException ex) {
+        error = ex;
+      }
+    }
+    
+    synchronized void rethrow() throws IOException {
+      if (error != null) {
+        throw error;
+      }
+    }
+  }
+}
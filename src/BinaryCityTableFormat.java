@@ -0,0 +1,232 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reads and writes the binary city table format, which is opened through a
+ * memory mapping instead of being parsed.  A file is a 32 byte big-endian
+ * header followed by the distances in row-major order:
+ * <pre>
+ *   int   magic number ("TSPB")
+ *   short format version
+ *   byte  width of each distance in bytes (1, 2 or 4)
+ *   byte  flags (bit 0 is set when the table is symmetric)
+ *   int   number of cities
+ *   long  number of distances following the header
+ *   (zero padding up to 32 bytes)
+ * </pre>
+ * Distances are unsigned values of the given width.  A symmetric table only
+ * stores the lower triangle of the matrix, including the diagonal.
+ */
+final class BinaryCityTableFormat {
+  static final int MAGIC = 0x54535042;
+  static final short VERSION = 1;
+  static final int HEADER_SIZE = 32;
+  static final int FLAG_SYMMETRIC = 1;
+  
+  private static final int BUFFER_SIZE = 1 << 16;
+  
+  private BinaryCityTableFormat() {
+  }
+  
+  /**
+   * Checks whether a file starts with the binary format's magic number.  The
+   * channel's position is left unchanged.
+   * @param channel
+   * @return
+   * @throws IOException
+   */
+  static boolean isBinary(FileChannel channel) throws IOException {
+    ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+    while (magic.hasRemaining()) {
+      if (channel.read(magic, magic.position()) < 0) {
+        return false;
+      }
+    }
+    return magic.getInt(0) == MAGIC;
+  }
+  
+  /**
+   * Opens a binary table by mapping it into memory.  Only the header and the
+   * diagonal are validated, so opening is independent of the table size.
+   * @param channel
+   * @return
+   * @throws IOException
+   * @throws CityTableFormatException If the file is invalid.
+   */
+  static CityTable map(FileChannel channel)
+          throws IOException, CityTableFormatException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (header.hasRemaining()) {
+      if (channel.read(header, header.position()) < 0) {
+        throw new CityTableFormatException("File format invalid");
+      }
+    }
+    
+    if (header.getInt(0) != MAGIC || header.getShort(4) != VERSION) {
+      throw new CityTableFormatException("Unsupported binary format version");
+    }
+    int width = header.get(6);
+    int flags = header.get(7);
+    int numCities = header.getInt(8);
+    long size = header.getLong(12);
+    
+    if (width != Byte.BYTES && width != Short.BYTES && width != Integer.BYTES) {
+      throw new CityTableFormatException("File format invalid");
+    }
+    boolean symmetric = (flags & FLAG_SYMMETRIC) != 0;
+    long expectedSize = symmetric ? SymmetricCityTable.size(numCities)
+            : (long)numCities * numCities;
+    // the size is checked before it is multiplied, so that cannot overflow
+    if (numCities <= 0 || size != expectedSize
+            || size > (Long.MAX_VALUE - HEADER_SIZE) / width
+            || channel.size() != HEADER_SIZE + size * width) {
+      throw new CityTableFormatException("File format invalid");
+    }
+    
+    DistanceStore store =
+            new MappedDistanceStore(channel, HEADER_SIZE, size, width);
+    CityTable result = symmetric ? new SymmetricCityTable(numCities, store)
+            : new MatrixCityTable(numCities, store);
+    for (int i = 0; i < numCities; i++) {
+      if (result.getDistanceUnchecked(i, i) != 0) {
+        throw new CityTableFormatException("Distance from city " + i
+                + " to itself is not 0");
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Reads a binary table from a stream into memory, for when it cannot be
+   * mapped, such as when it is sent over a socket.  Exactly the bytes of the
+   * table are read.
+   * @param in
+   * @return
+   * @throws IOException If the stream ends early or does not hold a valid
+   * table.
+   */
+  static CityTable read(ReadableByteChannel in) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    buffer.limit(HEADER_SIZE);
+    while (buffer.hasRemaining()) {
+      if (in.read(buffer) < 0) {
+        throw new EOFException("City table ended early");
+      }
+    }
+    
+    int width = buffer.get(6);
+    boolean symmetric = (buffer.get(7) & FLAG_SYMMETRIC) != 0;
+    int numCities = buffer.getInt(8);
+    long size = buffer.getLong(12);
+    if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION
+            || (width != Byte.BYTES && width != Short.BYTES
+                && width != Integer.BYTES)
+            || numCities <= 0 || size != (symmetric
+                ? SymmetricCityTable.size(numCities)
+                : (long)numCities * numCities)) {
+      throw new IOException("Invalid binary city table");
+    }
+    
+    // a store of the same width as the stream, so every value fits
+    DistanceStore store = DistanceStore.allocate(size,
+            width == Byte.BYTES ? DistanceStore.MAX_BYTE_DISTANCE
+            : width == Short.BYTES ? DistanceStore.MAX_SHORT_DISTANCE
+            : Integer.MAX_VALUE);
+    // never read past the table, the stream may carry more after it
+    long unread = size * width;
+    buffer.clear();
+    buffer.limit(0);
+    for (long i = 0; i < size; i++) {
+      while (buffer.remaining() < width) {
+        buffer.compact();
+        buffer.limit((int)Math.min(buffer.capacity(),
+                buffer.position() + unread));
+        int read = in.read(buffer);
+        if (read < 0) {
+          throw new EOFException("City table ended early");
+        }
+        unread -= read;
+        buffer.flip();
+      }
+      switch (width) {
+        case Byte.BYTES:
+          store.set(i, buffer.get() & 0xff);
+          break;
+        case Short.BYTES:
+          store.set(i, buffer.getShort() & 0xffff);
+          break;
+        default:
+          store.set(i, buffer.getInt());
+          break;
+      }
+    }
+    
+    CityTable result = symmetric ? new SymmetricCityTable(numCities, store)
+            : new MatrixCityTable(numCities, store);
+    for (int i = 0; i < numCities; i++) {
+      if (result.getDistanceUnchecked(i, i) != 0) {
+        throw new IOException("Distance from city " + i + " to itself is not 0");
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Writes a table in the binary format.
+   * @param table
+   * @param out
+   * @throws IOException
+   */
+  static void write(CityTable table, WritableByteChannel out)
+          throws IOException {
+    final int numCities = table.getNumCities();
+    final int width = table.getDistanceWidth();
+    final boolean symmetric = table.isSymmetric();
+    
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.put((byte)width);
+    buffer.put((byte)(symmetric ? FLAG_SYMMETRIC : 0));
+    buffer.putInt(numCities);
+    buffer.putLong(symmetric ? SymmetricCityTable.size(numCities)
+            : (long)numCities * numCities);
+    buffer.position(HEADER_SIZE);
+    
+    for (int i = 0; i < numCities; i++) {
+      int columns = symmetric ? i + 1 : numCities;
+      for (int j = 0; j < columns; j++) {
+        if (buffer.remaining() < width) {
+          flush(buffer, out);
+        }
+        int dist = table.getDistanceUnchecked(i, j);
+        switch (width) {
+          case Byte.BYTES:
+            buffer.put((byte)dist);
+            break;
+          case Short.BYTES:
+            buffer.putShort((short)dist);
+            break;
+          default:
+            buffer.putInt(dist);
+            break;
+        }
+      }
+    }
+    flush(buffer, out);
+  }
+  
+  private static void flush(ByteBuffer buffer, WritableByteChannel out)
+          throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,667 @@
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds an optimal tour, or one within a proven gap of optimal when time
+ * runs out, by branch and bound on the edges of the tour.  Each node of the
+ * search fixes some edges in or out of the tour and is bounded from below by
+ * a Held-Karp 1-tree: a spanning tree of all but city 0 plus two edges to
+ * city 0, with city penalties tuned by subgradient optimisation.  Nodes are
+ * explored depth first as fork/join tasks, so idle threads steal parts of
+ * the tree.  The starting upper bound comes from a short run of the genetic
+ * algorithm with local search, which counts towards the time limit.  Only
+ * works for symmetric tables, and is meant for up to about 100 cities.
+ */
+public class BranchAndBoundSolver implements Solver {
+  private static final byte FREE = 0;
+  private static final byte IN = 1;
+  private static final byte OUT = 2;
+  
+  // subgradient iterations at the root, per city
+  private static final int ROOT_ITERATIONS_PER_CITY = 10;
+  // subgradient iterations at the other nodes, which start from the
+  // penalties of their parent
+  private static final int NODE_ITERATIONS = 30;
+  // generations of the genetic algorithm that finds the first upper bound
+  private static final int INCUMBENT_GENERATIONS = 100;
+  // most of the time limit the genetic algorithm may take
+  private static final double INCUMBENT_TIME_FRACTION = 0.25;
+  // allowance for rounding when turning a bound into an int
+  private static final double EPSILON = 1e-6;
+  
+  private final long timeLimitNanos;
+  private final long seed;
+  private Solution incumbent;
+  private long progressMillis = 0;
+  private volatile int lowerBound;
+  private volatile int upperBound;
+  
+  /**
+   * Creates the solver.
+   * @param timeLimitMillis How long to search before giving up on proving
+   * optimality.
+   * @param seed Seed for finding the starting tour.
+   */
+  public BranchAndBoundSolver(long timeLimitMillis, long seed) {
+    if (timeLimitMillis < 0) {
+      throw new IllegalArgumentException("timeLimitMillis < 0");
+    }
+    this.timeLimitNanos = timeLimitMillis * 1000000;
+    this.seed = seed;
+  }
+  
+  /**
+   * Sets the tour to start from instead of running the genetic algorithm.
+   * @param incumbent A tour of the table to be solved, or null.
+   */
+  public void setIncumbent(Solution incumbent) {
+    this.incumbent = incumbent == null ? null : new Solution(incumbent);
+  }
+  
+  /**
+   * Sets how often the bounds are printed while searching.  Nothing is
+   * printed unless this is set.
+   * @param progressMillis 0 to turn printing off.
+   */
+  public void setProgressInterval(long progressMillis) {
+    if (progressMillis < 0) {
+      throw new IllegalArgumentException("progressMillis < 0");
+    }
+    this.progressMillis = progressMillis;
+  }
+  
+  /**
+   *
+   * @return
+   */
+  public long getSeed() {
+    return seed;
+  }
+  
+  /**
+   * Gets the best lower bound on the length of a tour, which equals the
+   * upper bound once optimality is proven.  Safe to call while solving.
+   * @return
+   */
+  public int getLowerBound() {
+    return lowerBound;
+  }
+  
+  /**
+   * Gets the length of the best tour found.  Safe to call while solving.
+   * @return
+   */
+  public int getUpperBound() {
+    return upperBound;
+  }
+  
+  /**
+   * Gets how far the best tour found may be from optimal.
+   * @return The gap as a fraction of the best tour's length.
+   */
+  public double getGap() {
+    int upper = upperBound;
+    return upper == 0 ? 0.0 : (double)(upper - lowerBound) / upper;
+  }
+  
+  @Override
+  public Solution solve(CityTable cities) {
+    if (!cities.isSymmetric()) {
+      throw new IllegalArgumentException(
+              "branch and bound needs a symmetric table");
+    }
+    if (cities.getNumCities() < 5) {
+      Solution result = new HeldKarpSolver().solve(cities);
+      lowerBound = result.getFitness();
+      upperBound = result.getFitness();
+      return result;
+    }
+    
+    long deadline = System.nanoTime() + timeLimitNanos;
+    Solution start = incumbent;
+    if (start == null || start.getFitness() < 0) {
+      SolverPhaseEvent phase = Events.startPhase("branch and bound",
+              "incumbent", cities.getNumCities());
+      long incumbentMillis = (long)(timeLimitNanos / 1000000
+              * INCUMBENT_TIME_FRACTION);
+      GeneticSolver ga = new GeneticSolver(Termination.anyOf(
+              Termination.generations(INCUMBENT_GENERATIONS),
+              Termination.deadline(incumbentMillis)), 0.1, seed);
+      ga.setHeuristicFraction(0.25);
+      ga.setLocalSearch(8, false);
+      start = ga.solve(cities);
+      Events.finishPhase(phase, start.getFitness());
+    }
+    return new Search(cities, start, deadline).run();
+  }
+  
+  /**
+   * The state of one run of the search.
+   */
+  private final class Search {
+    final CityTable cities;
+    final int n;
+    final int[][] dist;
+    final long deadline;
+    // nodes created but not finished, ordered by the bound of their parent
+    final ConcurrentSkipListSet<Node> open = new ConcurrentSkipListSet<>(
+            Comparator.comparingInt((Node node) -> node.parentBound)
+                    .thenComparingLong(node -> node.id));
+    final AtomicLong ids = new AtomicLong();
+    final AtomicLong nodes = new AtomicLong();
+    final AtomicLong nextReport;
+    volatile boolean timedOut;
+    // the best tour, only replaced together with upperBound
+    int[] bestTour;
+    
+    Search(CityTable cities, Solution start, long deadline) {
+      this.cities = cities;
+      n = cities.getNumCities();
+      dist = new int[n][n];
+      for (int i = 0; i < n; i++) {
+        for (int j = 0; j < n; j++) {
+          dist[i][j] = cities.getDistanceUnchecked(i, j);
+        }
+      }
+      bestTour = start.getTour();
+      upperBound = start.getFitness();
+      lowerBound = 0;
+      this.deadline = deadline;
+      nextReport = new AtomicLong(System.nanoTime()
+              + progressMillis * 1000000);
+    }
+    
+    Solution run() {
+      SolverPhaseEvent phase = Events.startPhase("branch and bound",
+              "search", n);
+      Node root = new Node(new byte[n * n], new double[n], 0, true);
+      open.add(root);
+      // stay on the pool the solve was called from, so its caller decides
+      // how many threads the search takes
+      if (ForkJoinTask.inForkJoinPool()) {
+        root.invoke();
+      }
+      else {
+        ForkJoinPool.commonPool().invoke(root);
+      }
+      Events.finishPhase(phase, upperBound);
+      
+      updateLowerBound();
+      if (progressMillis > 0) {
+        System.out.println(timedOut ? "Time limit reached" : "Optimal");
+        report();
+      }
+      synchronized (this) {
+        return new Solution(cities, bestTour);
+      }
+    }
+    
+    /**
+     * Bounds a node, then prunes it, records the tour it found, or splits
+     * it on an edge of its 1-tree.
+     */
+    void expand(Node node) {
+      if (System.nanoTime() > deadline) {
+        // left open, so its bound still limits the lower bound
+        timedOut = true;
+        return;
+      }
+      
+      OneTree tree = node.parentBound < upperBound ? bound(node) : null;
+      nodes.incrementAndGet();
+      if (tree == null || tree.bound >= upperBound) {
+        open.remove(node);
+      }
+      else if (tree.isTour()) {
+        offer(tree.tour());
+        open.remove(node);
+      }
+      else {
+        // split on the longest free edge at the city with most edges
+        int v = 0;
+        for (int i = 1; i < n; i++) {
+          if (tree.degree[i] > tree.degree[v]) {
+            v = i;
+          }
+        }
+        int u = -1;
+        for (int i = 0; i < n; i++) {
+          if (i != v && tree.hasEdge(v, i) && node.state[v * n + i] == FREE
+                  && (u < 0 || dist[v][i] > dist[v][u])) {
+            u = i;
+          }
+        }
+        
+        Node in = child(node, v, u, IN, tree);
+        Node out = child(node, v, u, OUT, tree);
+        if (in != null) {
+          open.add(in);
+        }
+        if (out != null) {
+          open.add(out);
+        }
+        open.remove(node);
+        
+        if (in != null && out != null) {
+          RecursiveAction.invokeAll(in, out);
+        }
+        else if (in != null) {
+          in.invoke();
+        }
+        else if (out != null) {
+          out.invoke();
+        }
+      }
+      maybeReport();
+    }
+    
+    /**
+     * Makes the child of a node with one more edge fixed, or returns null if
+     * that leaves no possible tour.
+     */
+    Node child(Node parent, int a, int b, byte value, OneTree tree) {
+      byte[] state = parent.state.clone();
+      state[a * n + b] = value;
+      state[b * n + a] = value;
+      if (!propagate(state)) {
+        return null;
+      }
+      return new Node(state, tree.pi, tree.bound, false);
+    }
+    
+    /**
+     * Fixes the edges that follow from the ones already fixed: a city with
+     * two edges in has no others, a city with only two edges left has both
+     * in, and a path of fixed edges cannot be closed early.
+     * @return false if the fixed edges cannot be part of any tour.
+     */
+    boolean propagate(byte[] state) {
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (int v = 0; v < n; v++) {
+          int in = 0;
+          int free = 0;
+          for (int u = 0; u < n; u++) {
+            if (u != v) {
+              byte s = state[v * n + u];
+              in += s == IN ? 1 : 0;
+              free += s == FREE ? 1 : 0;
+            }
+          }
+          if (in > 2 || in + free < 2) {
+            return false;
+          }
+          if (free > 0 && (in == 2 || in + free == 2)) {
+            byte value = in == 2 ? OUT : IN;
+            for (int u = 0; u < n; u++) {
+              if (u != v && state[v * n + u] == FREE) {
+                state[v * n + u] = value;
+                state[u * n + v] = value;
+              }
+            }
+            changed = true;
+          }
+        }
+        
+        // follow each path of edges that are in from one of its ends
+        boolean[] seen = new boolean[n];
+        int edgesIn = 0;
+        for (int v = 0; v < n; v++) {
+          int[] ends = inEnds(state, v);
+          edgesIn += ends[0] < 0 ? 0 : ends[1] < 0 ? 1 : 2;
+          if (seen[v] || ends[1] >= 0 || ends[0] < 0) {
+            continue;
+          }
+          int prev = -1;
+          int city = v;
+          int length = 1;
+          seen[v] = true;
+          while (true) {
+            int[] next = inEnds(state, city);
+            int step = next[0] != prev ? next[0] : next[1];
+            if (step < 0) {
+              break;
+            }
+            prev = city;
+            city = step;
+            seen[city] = true;
+            length++;
+          }
+          if (length < n && state[v * n + city] == FREE) {
+            state[v * n + city] = OUT;
+            state[city * n + v] = OUT;
+            changed = true;
+          }
+        }
+        // a cycle of edges that are in must be the whole tour
+        edgesIn /= 2;
+        if (edgesIn >= n) {
+          return edgesIn == n && isSingleCycle(state);
+        }
+        for (int v = 0; v < n; v++) {
+          if (!seen[v] && inEnds(state, v)[0] >= 0) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+    
+    /**
+     * Gets the (up to two) cities a city has edges in with, -1 for none.
+     */
+    int[] inEnds(byte[] state, int v) {
+      int[] ends = {-1, -1};
+      for (int u = 0; u < n; u++) {
+        if (u != v && state[v * n + u] == IN) {
+          ends[ends[0] < 0 ? 0 : 1] = u;
+        }
+      }
+      return ends;
+    }
+    
+    boolean isSingleCycle(byte[] state) {
+      int prev = -1;
+      int city = 0;
+      for (int i = 0; i < n; i++) {
+        int[] ends = inEnds(state, city);
+        int step = ends[0] != prev ? ends[0] : ends[1];
+        prev = city;
+        city = step;
+      }
+      return city == 0;
+    }
+    
+    /**
+     * Finds the best 1-tree bound of a node by subgradient optimisation,
+     * starting from its parent's penalties.
+     * @return The tree with the best bound, or null if the node has no tour.
+     */
+    OneTree bound(Node node) {
+      final int iterations = node.root
+              ? Math.max(100, ROOT_ITERATIONS_PER_CITY * n) : NODE_ITERATIONS;
+      final int patience = node.root ? Math.max(5, n / 2) : 5;
+      double lambda = node.root ? 2.0 : 1.0;
+      double[] pi = node.pi.clone();
+      OneTree best = null;
+      OneTree tree = new OneTree(n);
+      int sinceImproved = 0;
+      
+      for (int it = 0; it < iterations; it++) {
+        if (!tree.build(node.state, pi)) {
+          return null;
+        }
+        OneTree current = tree;
+        if (best == null || tree.value > best.value) {
+          // keep the tree and reuse the old best for the next one
+          OneTree temp = best == null ? new OneTree(n) : best;
+          best = tree;
+          best.pi = pi.clone();
+          best.bound = (int)Math.ceil(best.value - EPSILON);
+          tree = temp;
+          sinceImproved = 0;
+          if (best.isTour() || best.bound >= upperBound) {
+            break;
+          }
+        }
+        else if (++sinceImproved >= patience) {
+          lambda /= 2;
+          sinceImproved = 0;
+        }
+        
+        // move the penalties towards every city having two edges
+        int norm = 0;
+        for (int i = 0; i < n; i++) {
+          int excess = current.degree[i] - 2;
+          norm += excess * excess;
+        }
+        if (norm == 0) {
+          break;
+        }
+        double step = lambda * (upperBound - current.value) / norm;
+        for (int i = 0; i < n; i++) {
+          pi[i] += step * (current.degree[i] - 2);
+        }
+      }
+      return best;
+    }
+    
+    void offer(int[] tour) {
+      int length = 0;
+      for (int i = 0; i < n; i++) {
+        length += dist[tour[i]][tour[(i + 1) % n]];
+      }
+      synchronized (this) {
+        if (length < upperBound) {
+          bestTour = tour;
+          upperBound = length;
+        }
+      }
+    }
+    
+    void updateLowerBound() {
+      int upper = upperBound;
+      int lower = upper;
+      if (!open.isEmpty()) {
+        try {
+          lower = Math.min(upper, open.first().parentBound);
+        }
+        catch (NoSuchElementException ex) {
+          // emptied since the check
+        }
+      }
+      lowerBound = Math.max(lowerBound, lower);
+    }
+    
+    void maybeReport() {
+      if (progressMillis == 0) {
+        return;
+      }
+      long now = System.nanoTime();
+      long due = nextReport.get();
+      if (now >= due && nextReport.compareAndSet(due,
+              now + progressMillis * 1000000)) {
+        updateLowerBound();
+        report();
+      }
+    }
+    
+    void report() {
+      System.out.println(String.format(
+              "Nodes: %d, bounds: [%d, %d], gap: %.2f%%",
+              nodes.get(), lowerBound, upperBound, 100 * getGap()));
+    }
+    
+    /**
+     * A node of the search: the state of every edge, and the penalties and
+     * bound of its parent.
+     */
+    private final class Node extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      
+      final byte[] state;
+      final double[] pi;
+      final int parentBound;
+      final boolean root;
+      final long id = ids.getAndIncrement();
+      
+      Node(byte[] state, double[] pi, int parentBound, boolean root) {
+        this.state = state;
+        this.pi = pi;
+        this.parentBound = parentBound;
+        this.root = root;
+      }
+      
+      @Override
+      protected void compute() {
+        expand(this);
+      }
+    }
+    
+    /**
+     * A 1-tree under some penalties: a spanning tree of cities 1 to n-1 plus
+     * the two cheapest edges from city 0, with fixed edges always in or out.
+     */
+    private final class OneTree {
+      // the tree's parent of each city, -1 for city 1 and city 0
+      final int[] parent;
+      final int[] degree;
+      // the two edges of city 0
+      int zeroA;
+      int zeroB;
+      double value;
+      int bound;
+      double[] pi;
+      private final double[] key;
+      private final boolean[] keyFixed;
+      private final boolean[] inTree;
+      
+      OneTree(int n) {
+        parent = new int[n];
+        degree = new int[n];
+        key = new double[n];
+        keyFixed = new boolean[n];
+        inTree = new boolean[n];
+      }
+      
+      /**
+       * Builds the tree with Prim's algorithm, taking edges fixed in before
+       * any others.
+       * @return false if the fixed edges allow no tree.
+       */
+      boolean build(byte[] state, double[] pi) {
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+          parent[i] = -1;
+          degree[i] = 0;
+          key[i] = Double.POSITIVE_INFINITY;
+          keyFixed[i] = false;
+          inTree[i] = false;
+        }
+        
+        int v = 1;
+        for (int added = 1; added < n; added++) {
+          inTree[v] = true;
+          if (parent[v] >= 0) {
+            total += key[v];
+            degree[v]++;
+            degree[parent[v]]++;
+          }
+          if (added == n - 1) {
+            break;
+          }
+          for (int u = 2; u < n; u++) {
+            byte s = state[v * n + u];
+            if (inTree[u] || s == OUT) {
+              continue;
+            }
+            double w = dist[v][u] + pi[v] + pi[u];
+            if (s == IN ? !keyFixed[u] || w < key[u]
+                    : !keyFixed[u] && w < key[u]) {
+              key[u] = w;
+              keyFixed[u] = s == IN;
+              parent[u] = v;
+            }
+          }
+          // the next city is the closest, fixed edges first
+          int next = -1;
+          for (int u = 2; u < n; u++) {
+            if (!inTree[u] && (next < 0 || keyFixed[u] && !keyFixed[next]
+                    || keyFixed[u] == keyFixed[next] && key[u] < key[next])) {
+              next = u;
+            }
+          }
+          if (key[next] == Double.POSITIVE_INFINITY) {
+            return false;
+          }
+          v = next;
+        }
+        
+        // two edges from city 0: the fixed ones, then the cheapest free ones
+        int[] fixed = {-1, -1};
+        int cheapest = -1;
+        int second = -1;
+        for (int u = 1; u < n; u++) {
+          byte s = state[u];
+          if (s == IN) {
+            fixed[fixed[0] < 0 ? 0 : 1] = u;
+          }
+          else if (s == FREE) {
+            if (cheapest < 0 || weight(u, pi) < weight(cheapest, pi)) {
+              second = cheapest;
+              cheapest = u;
+            }
+            else if (second < 0 || weight(u, pi) < weight(second, pi)) {
+              second = u;
+            }
+          }
+        }
+        zeroA = fixed[0] >= 0 ? fixed[0] : cheapest;
+        zeroB = fixed[1] >= 0 ? fixed[1] : fixed[0] >= 0 ? cheapest : second;
+        if (zeroA < 0 || zeroB < 0) {
+          return false;
+        }
+        total += weight(zeroA, pi) + weight(zeroB, pi);
+        degree[0] = 2;
+        degree[zeroA]++;
+        degree[zeroB]++;
+        
+        double penalties = 0;
+        for (int i = 0; i < n; i++) {
+          penalties += pi[i];
+        }
+        value = total - 2 * penalties;
+        return true;
+      }
+      
+      private double weight(int u, double[] pi) {
+        return dist[0][u] + pi[0] + pi[u];
+      }
+      
+      boolean isTour() {
+        for (int i = 0; i < n; i++) {
+          if (degree[i] != 2) {
+            return false;
+          }
+        }
+        return true;
+      }
+      
+      boolean hasEdge(int a, int b) {
+        if (a == 0 || b == 0) {
+          int other = a + b;
+          return other == zeroA || other == zeroB;
+        }
+        return parent[a] == b || parent[b] == a;
+      }
+      
+      /**
+       * Gets the cities in order when every city has two edges.
+       */
+      int[] tour() {
+        int[] tour = new int[n];
+        int prev = 0;
+        int city = zeroA;
+        tour[1] = city;
+        for (int i = 2; i < n; i++) {
+          int next = -1;
+          for (int u = 0; u < n && next < 0; u++) {
+            if (u != prev && u != city && hasEdge(city, u)) {
+              next = u;
+            }
+          }
+          prev = city;
+          city = next;
+          tour[i] = city;
+        }
+        return tour;
+      }
+    }
+  }
+}
@@ -1,54 +1,109 @@
-
-import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
+import java.nio.channels.FileChannel;
 import java.util.Random;
-import java.util.Scanner;
 
 /**
  * Holds a table of distances between cities.
  */
-public class CityTable {
+public abstract class CityTable {
+  /** File extension used when saving tables in the binary format. */
+  public static final String BINARY_EXTENSION = ".tsb";
+  
+  /**
+   * How a loaded table decides whether to use the packed symmetric layout.
+   */
+  public enum Symmetry {
+    /** Check the distances and pack the table if they are symmetric. */
+    DETECT,
+    /**
+     * Trust the file to be symmetric and only keep the lower triangle.  The
+     * upper triangle is validated but never compared with the lower one.
+     */
+    SYMMETRIC,
+    /** Always keep the full matrix. */
+    ASYMMETRIC
+  }
+  
   private final int numCities;
-  private final ArrayList<ArrayList<Integer>> cities;
+  // the longest neighbour lists built so far
+  private volatile NeighbourLists neighbours;
   
   /**
    * Loads a table of cities from a file.  The file format is a single int 
    * on the first line defining the number of cities, followed by N lines, 
    * each with N ints separated by spaces defining the distances in the table.
+   * Files written by {@link #saveBinary(String) saveBinary} are detected and
+   * memory-mapped instead of parsed, and TSPLIB files with coordinates are
+   * loaded as coordinates with distances computed on demand.  Symmetric
+   * tables are detected and stored in half the memory.
    * @param path
    * @return The loaded table or null if there was an error.
    * @throws FileNotFoundException 
+   * @throws IOException
    */
   public static CityTable loadFromFile(String path) 
-          throws FileNotFoundException {
-    Scanner file = new Scanner(new File(path));
-    
-    int num = file.nextInt();
-    if (num <= 0) {
-      System.out.println("File format invalid");
+          throws FileNotFoundException, IOException {
+    return loadFromFile(path, Symmetry.DETECT);
+  }
+  
+  /**
+   * Loads a table of cities from a file, see {@link #loadFromFile(String)}.
+   * Binary files always keep the layout they were saved with.
+   * @param path
+   * @param symmetry Whether to store the table as symmetric.
+   * @return The loaded table or null if there was an error.
+   * @throws FileNotFoundException
+   * @throws IOException
+   */
+  public static CityTable loadFromFile(String path, Symmetry symmetry)
+          throws FileNotFoundException, IOException {
+    try {
+      return load(path, symmetry);
+    }
+    catch (CityTableFormatException ex) {
+      System.out.println(ex.getMessage());
       return null;
-    }    
-    CityTable result = new CityTable(num);
-    
-    for (int i = 0; i < num; i++) {
-      for (int j = 0; j < num; j++) {
-        // the distance from city i to city j
-        int dist = file.nextInt();
-        if (i == j && dist != 0) {
-          System.out.println("Distance from city " + i + " to itself is not 0");
-          return null;
-        }
-        if (dist < 0) {
-          System.out.println("Invalid distance from " + i + " to " + j);
-          return null;
-        }
-        result.cities.get(i).set(j, dist);
+    }
+  }
+  
+  /**
+   * Loads a table of cities from a file, see {@link #loadFromFile(String)},
+   * reporting a badly formatted file with an exception instead of printing
+   * it.
+   * @param path
+   * @param symmetry Whether to store the table as symmetric.
+   * @return
+   * @throws IOException
+   * @throws CityTableFormatException
+   */
+  static CityTable load(String path, Symmetry symmetry)
+          throws IOException, CityTableFormatException {
+    LoadEvent event = Events.startLoad(path);
+    String format = null;
+    CityTable result = null;
+    try (FileChannel channel = new FileInputStream(path).getChannel()) {
+      if (BinaryCityTableFormat.isBinary(channel)) {
+        format = "binary";
+        result = BinaryCityTableFormat.map(channel);
+      }
+      else if (TsplibFormat.isTsplib(channel)) {
+        format = "tsplib";
+        result = TsplibFormat.parse(channel);
       }
+      else {
+        format = "text";
+        result = TextCityTableFormat.parse(channel, symmetry);
+      }
+      return result;
     }
-    
-    return result;
+    finally {
+      Events.finishLoad(event, format,
+              result == null ? -1 : result.getNumCities());
+    }    
   }
   
   /**
@@ -64,38 +119,28 @@ public class CityTable {
     final int minDistance = 1;
     final int maxDistance = 10;
     final Random rand = new Random();
-    CityTable result = new CityTable(numCities);
+    DistanceStore store = DistanceStore.allocate(
+            SymmetricCityTable.size(numCities), maxDistance);
     
     for (int i = 0; i < numCities; i++) {
-      for (int j = 0; j <= i; j++) {
-        if (i == j) {
-          result.cities.get(i).set(j, 0);
-        }
-        else {
-          int distance = rand.nextInt(maxDistance - minDistance + 1) + minDistance;
-          result.cities.get(i).set(j, distance);
-          result.cities.get(j).set(i, distance);
-        }
+      for (int j = 0; j < i; j++) {
+        int distance = rand.nextInt(maxDistance - minDistance + 1) + minDistance;
+        store.set(SymmetricCityTable.index(i, j), distance);
       }
     }
     
-    return result;
+    return new SymmetricCityTable(numCities, store);
   }
   
   /**
    * Creates the table.
    * @param numCities 
    */
-  private CityTable(int numCities) {
-    this.numCities = numCities;
-    cities = new ArrayList<>(numCities);
-    for (int i = 0; i < numCities; i++) {
-      ArrayList<Integer> row = new ArrayList<>(numCities);
-      for (int j = 0; j < numCities; j++) {
-        row.add(-1);
-      }      
-      cities.add(row);
+  protected CityTable(int numCities) {
+    if (numCities <= 0) {
+      throw new IllegalArgumentException("numCities <= 0");
     }
+    this.numCities = numCities;
   }
   
   /**
@@ -120,7 +165,106 @@ public class CityTable {
       throw new IllegalArgumentException("cityB out of range");
     }
     
-    return cities.get(cityA).get(cityB);
+    return getDistanceUnchecked(cityA, cityB);
+  }
+  
+  /**
+   * Gets the distance from city A to B without range checking the cities.
+   * Only for trusted callers such as the genetic algorithm's inner loops,
+   * which already guarantee both cities are valid.
+   * @param cityA
+   * @param cityB
+   * @return
+   */
+  public abstract int getDistanceUnchecked(int cityA, int cityB);
+  
+  /**
+   * Gets the nearest neighbours of every city.  The longest lists asked for
+   * are kept, and later calls asking for no more neighbours get a trimmed
+   * view of them instead of building new ones.
+   * @param size How many neighbours to find for each city.
+   * @return
+   */
+  public NeighbourLists getNearestNeighbours(int size) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("size <= 0");
+    }
+    
+    size = Math.min(size, numCities - 1);
+    NeighbourLists result = neighbours;
+    if (result == null || result.size() < size) {
+      result = buildNearestNeighbours(size);
+      neighbours = result;
+    }
+    return result.trim(size);
+  }
+  
+  /**
+   * Builds the nearest neighbour lists.  Subclasses may override this with
+   * something faster than checking every pair of cities.
+   * @param size
+   * @return
+   */
+  NeighbourLists buildNearestNeighbours(int size) {
+    return NeighbourLists.build(this, size);
+  }
+  
+  /**
+   * Whether the table is known to be symmetric, i.e. the distance from A to B
+   * is always the distance from B to A.
+   * @return
+   */
+  public boolean isSymmetric() {
+    return false;
+  }
+  
+  /**
+   * Turns on a cache of the most used rows, for tables that compute their
+   * distances when they are asked for.  Tables that store every distance
+   * ignore it.
+   * @param rows The largest number of rows kept, or 0 to turn the cache off.
+   */
+  public void setRowCache(int rows) {
+    if (rows < 0) {
+      throw new IllegalArgumentException("rows < 0");
+    }
+  }
+  
+  /**
+   * Checks every distance to see if the table is symmetric.
+   * @return
+   */
+  boolean checkSymmetric() {
+    for (int i = 0; i < numCities; i++) {
+      for (int j = 0; j < i; j++) {
+        if (getDistanceUnchecked(i, j) != getDistanceUnchecked(j, i)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Gets the largest distance in the table.
+   * @return
+   */
+  int getMaxDistance() {
+    int maxDistance = 0;
+    for (int i = 0; i < numCities; i++) {
+      for (int j = 0; j < numCities; j++) {
+        maxDistance = Math.max(maxDistance, getDistanceUnchecked(i, j));
+      }
+    }
+    return maxDistance;
+  }
+  
+  /**
+   * Gets the number of bytes needed to store each distance in this table.
+   * @return 1, 2 or 4.
+   */
+  int getDistanceWidth() {
+    return DistanceStore.widthFor(getMaxDistance());
   }
   
   /**
@@ -134,11 +278,25 @@ public class CityTable {
       
       for (int i = 0; i < numCities; i++) {
         for (int j = 0; j < numCities; j++) {
-          pw.write(cities.get(i).get(j) + " ");
+          pw.write(getDistanceUnchecked(i, j) + " ");
         }
         pw.write("\n");
       }
       pw.write("\n");
     }
   }
+  
+  /**
+   * Saves the city data to a file in the binary format, which can be loaded
+   * without parsing.
+   * @param path
+   * @throws FileNotFoundException
+   * @throws IOException
+   */
+  public void saveBinary(String path)
+          throws FileNotFoundException, IOException {
+    try (FileChannel channel = new FileOutputStream(path).getChannel()) {
+      BinaryCityTableFormat.write(this, channel);
+    }
+  }
 }
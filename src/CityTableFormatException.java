@@ -0,0 +1,49 @@
+/**
+ * Thrown when a city table file is malformed.  Carries the position of the
+ * problem so it can be reported to the user.
+ */
+public class CityTableFormatException extends Exception {
+  private static final long serialVersionUID = 1L;
+  
+  private final long line;
+  private final long column;
+  
+  /**
+   * Creates the exception.
+   * @param message Description of the problem.
+   * @param line 1-based line of the problem.
+   * @param column 1-based column of the problem.
+   */
+  public CityTableFormatException(String message, long line, long column) {
+    super("Line " + line + ", column " + column + ": " + message);
+    this.line = line;
+    this.column = column;
+  }
+  
+  /**
+   * Creates the exception for a format without lines, such as the binary
+   * format.
+   * @param message Description of the problem.
+   */
+  public CityTableFormatException(String message) {
+    super(message);
+    this.line = 0;
+    this.column = 0;
+  }
+  
+  /**
+   *
+   * @return The 1-based line of the problem, or 0 if it has no line.
+   */
+  public long getLine() {
+    return line;
+  }
+  
+  /**
+   *
+   * @return The 1-based column of the problem, or 0 if it has no line.
+   */
+  public long getColumn() {
+    return column;
+  }
+}
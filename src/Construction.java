@@ -0,0 +1,334 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Heuristics that build a reasonable tour from scratch, for starting from
+ * something better than a random tour.  Each returns the cities in the order
+ * they are visited.
+ */
+final class Construction {
+  // side of the grid coordinates are scaled to for the Hilbert curve
+  private static final int HILBERT_SIDE = 1 << 15;
+  
+  private Construction() {
+  }
+  
+  /**
+   * Builds one of a mix of tours, for filling part of a population.  The
+   * first is built by greedy edge and the second by following a space
+   * filling curve (for coordinate tables), as those always give the same
+   * tour.  The rest alternate between nearest neighbour from a random start
+   * and random insertion.
+   * @param index Which tour of the mix to build.
+   * @param cities
+   * @param neighbours
+   * @param rand
+   * @return
+   */
+  static int[] mixed(int index, CityTable cities, NeighbourLists neighbours,
+          SplittableRandom rand) {
+    if (index == 0) {
+      return greedyEdge(cities, neighbours);
+    }
+    if (index == 1 && cities instanceof CoordinateCityTable) {
+      return spaceFillingCurve((CoordinateCityTable)cities);
+    }
+    if (index % 2 == 0) {
+      return nearestNeighbour(cities, neighbours,
+              rand.nextInt(cities.getNumCities()));
+    }
+    return randomInsertion(cities, rand);
+  }
+  
+  /**
+   * Builds a tour by always going to the closest city not yet visited.  The
+   * neighbour lists are checked first, and all unvisited cities only when
+   * every neighbour has been visited.
+   * @param cities
+   * @param neighbours
+   * @param start The first city.
+   * @return
+   */
+  static int[] nearestNeighbour(CityTable cities, NeighbourLists neighbours,
+          int start) {
+    final int n = cities.getNumCities();
+    int[] tour = new int[n];
+    // unvisited cities, with where each city is in that list
+    int[] unvisited = new int[n];
+    int[] where = new int[n];
+    for (int i = 0; i < n; i++) {
+      unvisited[i] = i;
+      where[i] = i;
+    }
+    int remaining = n;
+    
+    int city = start;
+    for (int k = 0; k < n; k++) {
+      tour[k] = city;
+      // swap the city out of the unvisited list
+      int last = unvisited[--remaining];
+      unvisited[where[city]] = last;
+      where[last] = where[city];
+      where[city] = -1;
+      if (remaining == 0) {
+        break;
+      }
+      
+      int next = -1;
+      for (int r = 0; r < neighbours.size(); r++) {
+        int c = neighbours.get(city, r);
+        if (where[c] >= 0) {
+          next = c;
+          break;
+        }
+      }
+      if (next < 0) {
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i < remaining; i++) {
+          int dist = cities.getDistanceUnchecked(city, unvisited[i]);
+          if (dist < best) {
+            best = dist;
+            next = unvisited[i];
+          }
+        }
+      }
+      city = next;
+    }
+    return tour;
+  }
+  
+  /**
+   * Builds a tour by adding the shortest edges first, skipping any that
+   * would give a city three edges or close a cycle too early.  Only edges
+   * from the neighbour lists are considered, and the paths left at the end
+   * are joined by going from the end of each to the nearest end of another.
+   * @param cities
+   * @param neighbours
+   * @return
+   */
+  static int[] greedyEdge(CityTable cities, NeighbourLists neighbours) {
+    final int n = cities.getNumCities();
+    final int k = neighbours.size();
+    // candidate edges as length then position in the neighbour lists
+    long[] edges = new long[n * k];
+    for (int i = 0; i < n; i++) {
+      for (int r = 0; r < k; r++) {
+        long dist = cities.getDistanceUnchecked(i, neighbours.get(i, r));
+        edges[i * k + r] = dist << 32 | (i * k + r);
+      }
+    }
+    Arrays.sort(edges);
+    
+    // the (up to two) cities each city is joined to
+    int[] link = new int[2 * n];
+    Arrays.fill(link, -1);
+    int[] degree = new int[n];
+    int[] fragment = new int[n];
+    for (int i = 0; i < n; i++) {
+      fragment[i] = i;
+    }
+    for (long edge : edges) {
+      int index = (int)edge;
+      int a = index / k;
+      int b = neighbours.get(a, index % k);
+      if (degree[a] < 2 && degree[b] < 2
+              && find(fragment, a) != find(fragment, b)) {
+        link[2 * a + degree[a]++] = b;
+        link[2 * b + degree[b]++] = a;
+        fragment[find(fragment, a)] = find(fragment, b);
+      }
+    }
+    
+    // ends of the paths, with where each city is in that list
+    int[] ends = new int[n];
+    int[] where = new int[n];
+    int numEnds = 0;
+    for (int i = 0; i < n; i++) {
+      where[i] = -1;
+      if (degree[i] < 2) {
+        where[i] = numEnds;
+        ends[numEnds++] = i;
+      }
+    }
+    
+    int[] tour = new int[n];
+    int count = 0;
+    int end = ends[0];
+    while (true) {
+      // follow the path from this end to its other end
+      removeEnd(end, ends, where, numEnds--);
+      int prev = -1;
+      int city = end;
+      while (true) {
+        tour[count++] = city;
+        int next = link[2 * city] == prev ? link[2 * city + 1]
+                : link[2 * city];
+        if (next < 0) {
+          break;
+        }
+        prev = city;
+        city = next;
+      }
+      if (city != end) {
+        removeEnd(city, ends, where, numEnds--);
+      }
+      if (numEnds == 0) {
+        break;
+      }
+      
+      // go on from the nearest end of another path
+      end = -1;
+      for (int r = 0; r < k; r++) {
+        int c = neighbours.get(city, r);
+        if (where[c] >= 0) {
+          end = c;
+          break;
+        }
+      }
+      if (end < 0) {
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i < numEnds; i++) {
+          int dist = cities.getDistanceUnchecked(city, ends[i]);
+          if (dist < best) {
+            best = dist;
+            end = ends[i];
+          }
+        }
+      }
+    }
+    return tour;
+  }
+  
+  /**
+   * Builds a tour by visiting coordinates in the order of a Hilbert curve
+   * through the bounding box of the cities.  Runs in O(n log n).
+   * @param cities
+   * @return
+   */
+  static int[] spaceFillingCurve(CoordinateCityTable cities) {
+    final int n = cities.getNumCities();
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; i++) {
+      minX = Math.min(minX, cities.getX(i));
+      minY = Math.min(minY, cities.getY(i));
+      maxX = Math.max(maxX, cities.getX(i));
+      maxY = Math.max(maxY, cities.getY(i));
+    }
+    double scale = (HILBERT_SIDE - 1)
+            / Math.max(Math.max(maxX - minX, maxY - minY), 1e-9);
+    
+    // position along the curve then city
+    long[] keys = new long[n];
+    for (int i = 0; i < n; i++) {
+      int x = (int)((cities.getX(i) - minX) * scale);
+      int y = (int)((cities.getY(i) - minY) * scale);
+      keys[i] = hilbertIndex(x, y) << 32 | i;
+    }
+    Arrays.sort(keys);
+    
+    int[] tour = new int[n];
+    for (int i = 0; i < n; i++) {
+      tour[i] = (int)keys[i];
+    }
+    return tour;
+  }
+  
+  /**
+   * Builds a tour by adding the cities in a random order, each where it
+   * makes the tour the least longer.  Takes O(n^2) time.
+   * @param cities
+   * @param rand
+   * @return
+   */
+  static int[] randomInsertion(CityTable cities, SplittableRandom rand) {
+    final int n = cities.getNumCities();
+    int[] order = new int[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    for (int i = n - 1; i > 0; i--) {
+      int j = rand.nextInt(i + 1);
+      int temp = order[j];
+      order[j] = order[i];
+      order[i] = temp;
+    }
+    if (n < 3) {
+      return order;
+    }
+    
+    // the tour so far as a linked list of the next city
+    int[] next = new int[n];
+    next[order[0]] = order[1];
+    next[order[1]] = order[0];
+    for (int i = 2; i < n; i++) {
+      int city = order[i];
+      int bestFrom = order[0];
+      int best = Integer.MAX_VALUE;
+      int from = order[0];
+      for (int j = 0; j < i; j++) {
+        int to = next[from];
+        int cost = cities.getDistanceUnchecked(from, city)
+                + cities.getDistanceUnchecked(city, to)
+                - cities.getDistanceUnchecked(from, to);
+        if (cost < best) {
+          best = cost;
+          bestFrom = from;
+        }
+        from = to;
+      }
+      next[city] = next[bestFrom];
+      next[bestFrom] = city;
+    }
+    
+    int[] tour = new int[n];
+    int city = order[0];
+    for (int i = 0; i < n; i++) {
+      tour[i] = city;
+      city = next[city];
+    }
+    return tour;
+  }
+  
+  /**
+   * Gets the position of a point along a Hilbert curve.
+   */
+  private static long hilbertIndex(int x, int y) {
+    long d = 0;
+    for (int s = HILBERT_SIDE / 2; s > 0; s /= 2) {
+      int rx = (x & s) != 0 ? 1 : 0;
+      int ry = (y & s) != 0 ? 1 : 0;
+      d += (long)s * s * ((3 * rx) ^ ry);
+      // rotate the quadrant so the curve stays continuous
+      if (ry == 0) {
+        if (rx == 1) {
+          x = HILBERT_SIDE - 1 - x;
+          y = HILBERT_SIDE - 1 - y;
+        }
+        int temp = x;
+        x = y;
+        y = temp;
+      }
+    }
+    return d;
+  }
+  
+  private static int find(int[] fragment, int city) {
+    while (fragment[city] != city) {
+      // path halving
+      fragment[city] = fragment[fragment[city]];
+      city = fragment[city];
+    }
+    return city;
+  }
+  
+  private static void removeEnd(int city, int[] ends, int[] where,
+          int numEnds) {
+    int last = ends[numEnds - 1];
+    ends[where[city]] = last;
+    where[last] = where[city];
+    where[city] = -1;
+  }
+}
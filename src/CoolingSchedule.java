@@ -0,0 +1,15 @@
+/**
+ * Sets the temperature of {@link SimulatedAnnealingSolver} as the search
+ * goes on.  The temperature depends only on how much of the time limit has
+ * been used, so a schedule fits any time limit.
+ */
+public interface CoolingSchedule {
+  
+  /**
+   * Gets the temperature at some point of the search.
+   * @param initial The temperature at the start.
+   * @param progress The part of the time limit used, from 0 to 1.
+   * @return
+   */
+  double temperature(double initial, double progress);
+}
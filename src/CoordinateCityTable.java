@@ -0,0 +1,430 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A {@link CityTable} that holds the coordinates of each city and computes
+ * distances when they are asked for, using the TSPLIB distance functions.
+ * Memory use is linear in the number of cities.  An optional cache keeps the
+ * rows of the cities that are looked up much more often than the others.
+ */
+class CoordinateCityTable extends CityTable {
+  // TSPLIB's radius of the earth, in km
+  private static final double EARTH_RADIUS = 6378.388;
+  // a city is considered for the row cache every this many misses
+  private static final int NOMINATE_EVERY = 16;
+  // rows looked at when choosing which row to evict
+  private static final int VICTIM_SAMPLE = 4;
+  // misses per city, on average, between halving the usage counts
+  private static final int AGE_EVERY = 64;
+  // average number of cities per cell when searching for neighbours
+  private static final int CITIES_PER_CELL = 2;
+  
+  /**
+   * The TSPLIB distance functions for coordinates.
+   */
+  enum Metric {
+    /** Euclidean distance rounded to the nearest integer. */
+    EUC_2D,
+    /** Euclidean distance rounded up. */
+    CEIL_2D,
+    /** Pseudo-Euclidean distance used by the att instances. */
+    ATT,
+    /** Distance in km on an idealised sphere, from latitude and longitude. */
+    GEO;
+    
+    /**
+     * Whether distances grow with the Euclidean distance of the coordinates,
+     * which allows neighbours to be found with a grid.
+     * @return
+     */
+    boolean isPlanar() {
+      return this != GEO;
+    }
+  }
+  
+  private final Metric metric;
+  // for GEO these are the latitude and longitude in radians
+  private final double[] x;
+  private final double[] y;
+  private volatile RowCache cache;
+  
+  /**
+   * Creates the table.
+   * @param metric
+   * @param x The x coordinate (or latitude for GEO) of each city.
+   * @param y The y coordinate (or longitude for GEO) of each city.
+   */
+  CoordinateCityTable(Metric metric, double[] x, double[] y) {
+    super(x.length);
+    if (y.length != x.length) {
+      throw new IllegalArgumentException("x and y must be the same length");
+    }
+    this.metric = metric;
+    if (metric == Metric.GEO) {
+      this.x = new double[x.length];
+      this.y = new double[y.length];
+      for (int i = 0; i < x.length; i++) {
+        this.x[i] = toRadians(x[i]);
+        this.y[i] = toRadians(y[i]);
+      }
+    }
+    else {
+      this.x = x.clone();
+      this.y = y.clone();
+    }
+  }
+  
+  /**
+   * Turns on a cache of the most used rows of the table.  A row is only
+   * admitted when its city has been missed more than twice as often as the
+   * least used row it would evict has been hit, so when every city is used
+   * about as much, as by the genetic algorithm, rows are not swapped back
+   * and forth.
+   * @param rows The largest number of rows kept, or 0 to turn the cache off.
+   */
+  @Override
+  public void setRowCache(int rows) {
+    if (rows < 0) {
+      throw new IllegalArgumentException("rows < 0");
+    }
+    cache = rows == 0 ? null : new RowCache(Math.min(rows, getNumCities()));
+  }
+  
+  /**
+   *
+   * @return
+   */
+  Metric getMetric() {
+    return metric;
+  }
+  
+  /**
+   *
+   * @param city
+   * @return The x coordinate (or latitude in radians for GEO) of a city.
+   */
+  double getX(int city) {
+    return x[city];
+  }
+  
+  /**
+   *
+   * @param city
+   * @return The y coordinate (or longitude in radians for GEO) of a city.
+   */
+  double getY(int city) {
+    return y[city];
+  }
+  
+  @Override
+  public int getDistanceUnchecked(int cityA, int cityB) {
+    RowCache rows = cache;
+    if (rows != null) {
+      Row row = rows.byCity[cityA];
+      if (row != null) {
+        row.hits++;
+        return row.distances[cityB];
+      }
+      rows.miss(cityA);
+    }
+    return computeDistance(cityA, cityB);
+  }
+  
+  @Override
+  public boolean isSymmetric() {
+    return true;
+  }
+  
+  @Override
+  NeighbourLists buildNearestNeighbours(int size) {
+    if (!metric.isPlanar()) {
+      return super.buildNearestNeighbours(size);
+    }
+    return new NeighbourGrid().build(size);
+  }
+  
+  private int computeDistance(int cityA, int cityB) {
+    switch (metric) {
+      case EUC_2D: {
+        double dx = x[cityA] - x[cityB];
+        double dy = y[cityA] - y[cityB];
+        return (int)(Math.sqrt(dx * dx + dy * dy) + 0.5);
+      }
+      case CEIL_2D: {
+        double dx = x[cityA] - x[cityB];
+        double dy = y[cityA] - y[cityB];
+        return (int)Math.ceil(Math.sqrt(dx * dx + dy * dy));
+      }
+      case ATT: {
+        double dx = x[cityA] - x[cityB];
+        double dy = y[cityA] - y[cityB];
+        double r = Math.sqrt((dx * dx + dy * dy) / 10.0);
+        int t = (int)(r + 0.5);
+        return t < r ? t + 1 : t;
+      }
+      default: {
+        if (cityA == cityB) {
+          return 0;
+        }
+        double q1 = Math.cos(y[cityA] - y[cityB]);
+        double q2 = Math.cos(x[cityA] - x[cityB]);
+        double q3 = Math.cos(x[cityA] + x[cityB]);
+        return (int)(EARTH_RADIUS
+                * Math.acos(0.5 * ((1.0 + q1) * q2 - (1.0 - q1) * q3)) + 1.0);
+      }
+    }
+  }
+  
+  /**
+   * Converts a TSPLIB DDD.MM coordinate to radians.
+   */
+  private static double toRadians(double coordinate) {
+    double degrees = (int)coordinate;
+    double minutes = coordinate - degrees;
+    return Math.PI * (degrees + 5.0 * minutes / 3.0) / 180.0;
+  }
+  
+  /**
+   * A cached row of the table.  The fields other than the usage count are
+   * final, so a row read through a data race is always seen fully built.
+   */
+  private static final class Row {
+    final int city;
+    final int[] distances;
+    // racy, a lost update only makes eviction less exact
+    int hits = 0;
+    
+    Row(int city, int[] distances) {
+      this.city = city;
+      this.distances = distances;
+    }
+  }
+  
+  /**
+   * Bounded cache of rows, with admission decided by comparing how often the
+   * candidate is missed with how often the row it would evict is hit.
+   * Lookups are lock free, and the lock is never held while a row is
+   * computed.
+   */
+  private final class RowCache {
+    final Row[] byCity = new Row[getNumCities()];
+    // racy counters, a lost update only delays admitting a row
+    final int[] misses = new int[getNumCities()];
+    final Row[] slots;
+    int nominations = 0;
+    int hand = 0;
+    
+    RowCache(int capacity) {
+      slots = new Row[capacity];
+    }
+    
+    void miss(int city) {
+      int count = ++misses[city];
+      if (count % NOMINATE_EVERY != 0 || !worthAdmitting(city)) {
+        return;
+      }
+      
+      int[] distances = new int[getNumCities()];
+      for (int i = 0; i < distances.length; i++) {
+        distances[i] = computeDistance(city, i);
+      }
+      admit(new Row(city, distances));
+    }
+    
+    synchronized boolean worthAdmitting(int city) {
+      if (++nominations >= byCity.length * (AGE_EVERY / NOMINATE_EVERY)) {
+        age();
+      }
+      return byCity[city] == null && victim(city) >= 0;
+    }
+    
+    synchronized void admit(Row row) {
+      // usage may have changed while the row was computed
+      int slot = victim(row.city);
+      if (byCity[row.city] != null || slot < 0) {
+        return;
+      }
+      if (slots[slot] != null) {
+        byCity[slots[slot].city] = null;
+      }
+      // the misses that got the row in count as its uses so far
+      row.hits = misses[row.city];
+      misses[row.city] = 0;
+      slots[slot] = row;
+      byCity[row.city] = row;
+    }
+    
+    /**
+     * Picks the least hit of a few rows from the hand onwards.
+     * @return The slot to replace with the city's row, or -1 if the city has
+     * not been missed enough more to replace it.
+     */
+    private int victim(int city) {
+      int best = hand;
+      for (int i = 0; i < Math.min(VICTIM_SAMPLE, slots.length); i++) {
+        int slot = (hand + i) % slots.length;
+        if (slots[slot] == null) {
+          best = slot;
+          break;
+        }
+        if (slots[slot].hits < slots[best].hits) {
+          best = slot;
+        }
+      }
+      hand = (hand + 1) % slots.length;
+      if (slots[best] != null && misses[city] <= 2 * slots[best].hits) {
+        return -1;
+      }
+      return best;
+    }
+    
+    /**
+     * Halves every count, so the cache follows changes in which cities are
+     * used.
+     */
+    private void age() {
+      nominations = 0;
+      for (int i = 0; i < misses.length; i++) {
+        misses[i] >>>= 1;
+      }
+      for (Row row : slots) {
+        if (row != null) {
+          row.hits >>>= 1;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Finds nearest neighbours for planar metrics by bucketing the cities into
+   * a uniform grid and searching outwards in rings of cells.
+   */
+  private final class NeighbourGrid {
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    // cities sorted by cell, with the start of each cell's run
+    private final int[] cellStart;
+    private final int[] cityByCell;
+    
+    NeighbourGrid() {
+      final int numCities = getNumCities();
+      double maxX = Double.NEGATIVE_INFINITY;
+      double maxY = Double.NEGATIVE_INFINITY;
+      double lowX = Double.POSITIVE_INFINITY;
+      double lowY = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < numCities; i++) {
+        lowX = Math.min(lowX, x[i]);
+        lowY = Math.min(lowY, y[i]);
+        maxX = Math.max(maxX, x[i]);
+        maxY = Math.max(maxY, y[i]);
+      }
+      minX = lowX;
+      minY = lowY;
+      
+      double width = Math.max(maxX - minX, 1e-9);
+      double height = Math.max(maxY - minY, 1e-9);
+      int cells = Math.max(1, numCities / CITIES_PER_CELL);
+      double size = Math.sqrt(width * height / cells);
+      if (size <= 0 || Double.isNaN(size)) {
+        size = Math.max(width, height);
+      }
+      cellSize = size;
+      columns = (int)Math.min(Math.floor(width / cellSize) + 1, 1 << 15);
+      rows = (int)Math.min(Math.floor(height / cellSize) + 1, 1 << 15);
+      
+      // counting sort of the cities by cell
+      cellStart = new int[columns * rows + 1];
+      int[] cellOf = new int[numCities];
+      for (int i = 0; i < numCities; i++) {
+        cellOf[i] = cell(column(x[i]), row(y[i]));
+        cellStart[cellOf[i] + 1]++;
+      }
+      for (int c = 0; c < columns * rows; c++) {
+        cellStart[c + 1] += cellStart[c];
+      }
+      int[] next = Arrays.copyOf(cellStart, cellStart.length - 1);
+      cityByCell = new int[numCities];
+      for (int i = 0; i < numCities; i++) {
+        cityByCell[next[cellOf[i]]++] = i;
+      }
+    }
+    
+    NeighbourLists build(int size) {
+      final int numCities = getNumCities();
+      final NeighbourLists result = new NeighbourLists(numCities,
+              Math.min(size, numCities - 1));
+      final int k = result.size();
+      
+      IntStream.range(0, numCities).parallel().forEach(city -> {
+        int[] best = new int[k];
+        double[] bestDistance = new double[k];
+        int[] count = new int[1];
+        int column = column(x[city]);
+        int row = row(y[city]);
+        int maxRing = Math.max(columns, rows);
+        
+        for (int ring = 0; ring <= maxRing; ring++) {
+          for (int c = column - ring; c <= column + ring; c++) {
+            if (c < 0 || c >= columns) {
+              continue;
+            }
+            // only the edge of the ring is new
+            int step = c == column - ring || c == column + ring
+                    ? 1 : Math.max(1, 2 * ring);
+            for (int r = row - ring; r <= row + ring; r += step) {
+              if (r >= 0 && r < rows) {
+                offer(city, cell(c, r), best, bestDistance, count, k);
+              }
+            }
+          }
+          // every city in later rings is at least this far away
+          if (count[0] == k && bestDistance[k - 1] <= ring * cellSize) {
+            break;
+          }
+        }
+        result.set(city, best);
+      });
+      
+      return result;
+    }
+    
+    private void offer(int city, int cell, int[] best, double[] bestDistance,
+            int[] count, int k) {
+      for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+        int other = cityByCell[i];
+        if (other == city) {
+          continue;
+        }
+        double dx = x[city] - x[other];
+        double dy = y[city] - y[other];
+        double dist = Math.sqrt(dx * dx + dy * dy);
+        if (count[0] == k && dist >= bestDistance[k - 1]) {
+          continue;
+        }
+        int pos = count[0] < k ? count[0]++ : k - 1;
+        while (pos > 0 && bestDistance[pos - 1] > dist) {
+          best[pos] = best[pos - 1];
+          bestDistance[pos] = bestDistance[pos - 1];
+          pos--;
+        }
+        best[pos] = other;
+        bestDistance[pos] = dist;
+      }
+    }
+    
+    private int column(double value) {
+      return Math.min(columns - 1, (int)((value - minX) / cellSize));
+    }
+    
+    private int row(double value) {
+      return Math.min(rows - 1, (int)((value - minY) / cellSize));
+    }
+    
+    private int cell(int column, int row) {
+      return row * columns + column;
+    }
+  }
+}
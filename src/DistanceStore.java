@@ -0,0 +1,188 @@
+/**
+ * Flat primitive storage for the distances held by a {@link CityTable}.  The
+ * values are kept at the narrowest width (byte, short or int) that can hold
+ * the largest distance in the table, and are always read back as unsigned.
+ */
+abstract class DistanceStore {
+  // largest distances representable by the narrow widths
+  static final int MAX_BYTE_DISTANCE = 0xff;
+  static final int MAX_SHORT_DISTANCE = 0xffff;
+  // largest number of entries a heap array can hold
+  static final long MAX_HEAP_ENTRIES = Integer.MAX_VALUE - 8;
+  
+  /**
+   * Gets the number of bytes used per distance for a table whose largest
+   * distance is maxDistance.
+   * @param maxDistance
+   * @return 1, 2 or 4.
+   */
+  static int widthFor(int maxDistance) {
+    if (maxDistance < 0) {
+      throw new IllegalArgumentException("maxDistance < 0");
+    }
+    
+    if (maxDistance <= MAX_BYTE_DISTANCE) {
+      return Byte.BYTES;
+    }
+    else if (maxDistance <= MAX_SHORT_DISTANCE) {
+      return Short.BYTES;
+    }
+    else {
+      return Integer.BYTES;
+    }
+  }
+  
+  /**
+   * Allocates a zero filled store on the heap.
+   * @param size The number of distances to hold.
+   * @param maxDistance The largest distance that will be stored.
+   * @return
+   */
+  static DistanceStore allocate(long size, int maxDistance) {
+    if (size < 0) {
+      throw new IllegalArgumentException("size < 0");
+    }
+    if (size > MAX_HEAP_ENTRIES) {
+      throw new IllegalArgumentException(
+              "Table has too many entries to be stored on the heap");
+    }
+    
+    switch (widthFor(maxDistance)) {
+      case Byte.BYTES:
+        return new ByteStore((int)size);
+      case Short.BYTES:
+        return new ShortStore((int)size);
+      default:
+        return new IntStore((int)size);
+    }
+  }
+  
+  /**
+   * Copies a store into the narrowest width that holds its largest distance.
+   * @param store
+   * @param maxDistance The largest distance held by store.
+   * @return store itself if it is already as narrow as possible.
+   */
+  static DistanceStore narrow(DistanceStore store, int maxDistance) {
+    if (widthFor(maxDistance) >= store.width()) {
+      return store;
+    }
+    
+    DistanceStore result = allocate(store.size(), maxDistance);
+    for (long i = 0; i < store.size(); i++) {
+      result.set(i, store.get(i));
+    }
+    return result;
+  }
+  
+  /**
+   * Gets the distance stored at an index.  The index is not range checked.
+   * @param index
+   * @return
+   */
+  abstract int get(long index);
+  
+  /**
+   * Sets the distance stored at an index.  The distance must fit in the
+   * width of this store.
+   * @param index
+   * @param distance
+   */
+  abstract void set(long index, int distance);
+  
+  /**
+   *
+   * @return The number of bytes used per distance.
+   */
+  abstract int width();
+  
+  /**
+   *
+   * @return The number of distances held.
+   */
+  abstract long size();
+  
+  private static final class ByteStore extends DistanceStore {
+    private final byte[] data;
+    
+    ByteStore(int size) {
+      data = new byte[size];
+    }
+    
+    @Override
+    int get(long index) {
+      return data[(int)index] & MAX_BYTE_DISTANCE;
+    }
+    
+    @Override
+    void set(long index, int distance) {
+      data[(int)index] = (byte)distance;
+    }
+    
+    @Override
+    int width() {
+      return Byte.BYTES;
+    }
+    
+    @Override
+    long size() {
+      return data.length;
+    }
+  }
+  
+  private static final class ShortStore extends DistanceStore {
+    private final short[] data;
+    
+    ShortStore(int size) {
+      data = new short[size];
+    }
+    
+    @Override
+    int get(long index) {
+      return data[(int)index] & MAX_SHORT_DISTANCE;
+    }
+    
+    @Override
+    void set(long index, int distance) {
+      data[(int)index] = (short)distance;
+    }
+    
+    @Override
+    int width() {
+      return Short.BYTES;
+    }
+    
+    @Override
+    long size() {
+      return data.length;
+    }
+  }
+  
+  private static final class IntStore extends DistanceStore {
+    private final int[] data;
+    
+    IntStore(int size) {
+      data = new int[size];
+    }
+    
+    @Override
+    int get(long index) {
+      return data[(int)index];
+    }
+    
+    @Override
+    void set(long index, int distance) {
+      data[(int)index] = distance;
+    }
+    
+    @Override
+    int width() {
+      return Integer.BYTES;
+    }
+    
+    @Override
+    long size() {
+      return data.length;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+import jdk.jfr.EventType;
+
+/**
+ * Starts and finishes the flight recorder events, so that only this class
+ * decides whether the event classes are touched.  The jdk.jfr module is
+ * missing from Java 8 before update 262 and from runtimes built without
+ * it, and there every method here does nothing.
+ */
+final class Events {
+  /** Whether the flight recorder API is there. */
+  static final boolean AVAILABLE = isAvailable();
+  
+  /**
+   * One in how many bred solutions has its operators timed, a power of two
+   * set with -Dtsp.jfr.sampleEvery.
+   */
+  static final int OPERATOR_SAMPLE_EVERY = Integer.highestOneBit(Math.max(1,
+          Integer.getInteger("tsp.jfr.sampleEvery", 16)));
+  
+  private Events() {
+  }
+  
+  private static boolean isAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    }
+    catch (ClassNotFoundException | LinkageError ex) {
+      return false;
+    }
+  }
+  
+  /**
+   * The event types, only loaded once the API is known to be there.
+   */
+  private static final class Types {
+    static final EventType GENERATION =
+            EventType.getEventType(GenerationEvent.class);
+    static final EventType OPERATOR =
+            EventType.getEventType(OperatorEvent.class);
+  }
+  
+  /**
+   * Whether a recording wants {@link GenerationEvent}s.
+   * @return Always false without the flight recorder API.
+   */
+  static boolean generationsEnabled() {
+    return AVAILABLE && Types.GENERATION.isEnabled();
+  }
+  
+  /**
+   * Whether a recording wants {@link OperatorEvent}s.
+   * @return Always false without the flight recorder API.
+   */
+  static boolean operatorsEnabled() {
+    return AVAILABLE && Types.OPERATOR.isEnabled();
+  }
+  
+  /**
+   * Starts timing a phase of a solver.
+   * @param solver The name of the solver.
+   * @param phase The name of the phase.
+   * @param cities The number of cities being solved.
+   * @return The started event, or null.
+   */
+  static SolverPhaseEvent startPhase(String solver, String phase,
+          int cities) {
+    return AVAILABLE ? new SolverPhaseEvent(solver, phase, cities) : null;
+  }
+  
+  /**
+   * Ends a phase and records it.
+   * @param event The event from {@link #startPhase}, or null.
+   * @param fitness The fitness at the end of the phase, or -1.
+   */
+  static void finishPhase(SolverPhaseEvent event, int fitness) {
+    if (event != null) {
+      event.finish(fitness);
+    }
+  }
+  
+  /**
+   * Starts timing the loading of a table.
+   * @param path The file being loaded.
+   * @return The started event, or null.
+   */
+  static LoadEvent startLoad(String path) {
+    if (!AVAILABLE) {
+      return null;
+    }
+    LoadEvent event = new LoadEvent();
+    event.begin();
+    event.path = path;
+    return event;
+  }
+  
+  /**
+   * Records a load.
+   * @param event The event from {@link #startLoad}, or null.
+   * @param format The format of the file, or null if it was not recognised.
+   * @param cities The number of cities loaded, or -1 if loading failed.
+   */
+  static void finishLoad(LoadEvent event, String format, int cities) {
+    if (event != null) {
+      event.format = format;
+      event.cities = cities;
+      event.commit();
+    }
+  }
+  
+  /**
+   * Starts timing an operator, if it is to be timed.
+   * @param timed Only true when {@link #operatorsEnabled()}.
+   * @return The started event, or null.
+   */
+  static OperatorEvent startOperator(boolean timed) {
+    if (!timed) {
+      return null;
+    }
+    OperatorEvent event = new OperatorEvent();
+    event.begin();
+    return event;
+  }
+  
+  /**
+   * Finishes timing an operator, if it was timed.
+   * @param event The event from {@link #startOperator}, or null.
+   * @param operator The name of the operator.
+   * @param cities The number of cities.
+   * @param generation The generation being bred.
+   * @param fitness The fitness of the solution after the operator, or -1.
+   */
+  static void finishOperator(OperatorEvent event, String operator,
+          int cities, long generation, int fitness) {
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.operator = operator;
+      event.cities = cities;
+      event.generation = generation;
+      event.fitness = fitness;
+      event.commit();
+    }
+  }
+}
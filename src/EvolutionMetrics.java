@@ -0,0 +1,313 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Records how a {@link Population} evolves: generations and fitness
+ * evaluations per second, the best, mean and worst fitness, the diversity
+ * of the population as its number of distinct edges, and the allocation
+ * rate.  Attached with {@link Population#setMetrics(EvolutionMetrics)}; a
+ * population without metrics only pays for a null check per generation.
+ *
+ * A sample is taken every few generations, since measuring diversity costs
+ * about as much as breeding a generation.  The latest sample can be read
+ * through JMX, see {@link #register(String)}, and the most recent samples
+ * are kept in a fixed size ring buffer of primitive arrays that can be
+ * written out as CSV.
+ */
+public class EvolutionMetrics implements EvolutionMetricsMBean {
+  private static final String CSV_HEADER = "generation,time_ms,"
+          + "generations_per_sec,evaluations_per_sec,best,mean,worst,"
+          + "distinct_edges,allocation_bytes_per_sec\n";
+  
+  private final int interval;
+  private final ThreadMXBean threads;
+  private final boolean allocationSupported;
+  private ObjectName name;
+  
+  // state of the recording thread
+  private long generation;
+  private long evaluations;
+  private long startNanos = -1;
+  private long lastNanos;
+  private long lastGeneration;
+  private long lastEvaluations;
+  private long lastAllocated;
+  // marks for counting distinct edges, by city
+  private int[] seen = new int[0];
+  
+  // latest sample, read by JMX
+  private volatile long sampleGeneration;
+  private volatile double generationsPerSecond;
+  private volatile double evaluationsPerSecond;
+  private volatile int bestFitness;
+  private volatile double meanFitness;
+  private volatile int worstFitness;
+  private volatile int distinctEdges;
+  private volatile double allocationRate;
+  
+  // ring buffer of samples, guarded by this
+  private final long[] ringGeneration;
+  private final long[] ringTime;
+  private final double[] ringGenerationRate;
+  private final double[] ringEvaluationRate;
+  private final int[] ringBest;
+  private final double[] ringMean;
+  private final int[] ringWorst;
+  private final int[] ringEdges;
+  private final double[] ringAllocation;
+  private int ringNext;
+  private int ringCount;
+  
+  /**
+   * Creates the metrics.
+   * @param interval Generations between samples.
+   * @param capacity How many of the latest samples to keep for
+   * {@link #writeCsv(Writer)}, or 0 to only keep the latest for JMX.
+   */
+  public EvolutionMetrics(int interval, int capacity) {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("interval must be > 0");
+    }
+    if (capacity < 0) {
+      throw new IllegalArgumentException("capacity < 0");
+    }
+    this.interval = interval;
+    threads = ManagementFactory.getThreadMXBean();
+    allocationSupported = threads instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean)threads)
+                    .isThreadAllocatedMemorySupported()
+            && ((com.sun.management.ThreadMXBean)threads)
+                    .isThreadAllocatedMemoryEnabled();
+    ringGeneration = new long[capacity];
+    ringTime = new long[capacity];
+    ringGenerationRate = new double[capacity];
+    ringEvaluationRate = new double[capacity];
+    ringBest = new int[capacity];
+    ringMean = new double[capacity];
+    ringWorst = new int[capacity];
+    ringEdges = new int[capacity];
+    ringAllocation = new double[capacity];
+  }
+  
+  /**
+   * Registers these metrics with the platform MBean server, as
+   * tsp:type=EvolutionMetrics,name=<i>name</i>.
+   * @param name
+   * @throws JMException If the name is invalid or already registered.
+   */
+  public synchronized void register(String name) throws JMException {
+    if (this.name != null) {
+      throw new IllegalStateException("already registered");
+    }
+    ObjectName objectName = new ObjectName("tsp:type=EvolutionMetrics,name="
+            + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+            objectName);
+    this.name = objectName;
+  }
+  
+  /**
+   * Removes these metrics from the platform MBean server, if registered.
+   * @throws JMException
+   */
+  public synchronized void unregister() throws JMException {
+    if (name != null) {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.unregisterMBean(name);
+      name = null;
+    }
+  }
+  
+  /**
+   * Writes the samples in the ring buffer as CSV, oldest first, with a
+   * header line.
+   * @param out
+   * @throws IOException
+   */
+  public void writeCsv(Writer out) throws IOException {
+    StringBuilder sb = new StringBuilder(CSV_HEADER);
+    synchronized (this) {
+      int capacity = ringGeneration.length;
+      for (int k = 0; k < ringCount; k++) {
+        int i = (ringNext - ringCount + k + capacity) % capacity;
+        sb.append(ringGeneration[i]).append(',')
+                .append(ringTime[i]).append(',')
+                .append(ringGenerationRate[i]).append(',')
+                .append(ringEvaluationRate[i]).append(',')
+                .append(ringBest[i]).append(',')
+                .append(ringMean[i]).append(',')
+                .append(ringWorst[i]).append(',')
+                .append(ringEdges[i]).append(',')
+                .append(ringAllocation[i]).append('\n');
+      }
+    }
+    out.write(sb.toString());
+  }
+  
+  @Override
+  public long getGeneration() {
+    return sampleGeneration;
+  }
+  
+  @Override
+  public double getGenerationsPerSecond() {
+    return generationsPerSecond;
+  }
+  
+  @Override
+  public double getEvaluationsPerSecond() {
+    return evaluationsPerSecond;
+  }
+  
+  @Override
+  public int getBestFitness() {
+    return bestFitness;
+  }
+  
+  @Override
+  public double getMeanFitness() {
+    return meanFitness;
+  }
+  
+  @Override
+  public int getWorstFitness() {
+    return worstFitness;
+  }
+  
+  @Override
+  public int getDistinctEdges() {
+    return distinctEdges;
+  }
+  
+  @Override
+  public double getAllocationRate() {
+    return allocationRate;
+  }
+  
+  /**
+   * Called by the population after each generation, always from the thread
+   * evolving it.
+   * @param cities
+   * @param members The new generation.
+   * @param fitness The fitness of each member.
+   * @param evaluated How many solutions were bred and scored.
+   */
+  void generationDone(CityTable cities, Solution[] members, int[] fitness,
+          int evaluated) {
+    generation++;
+    evaluations += evaluated;
+    if (startNanos < 0) {
+      // the clock starts now, so this generation is not counted in the rates
+      startNanos = System.nanoTime();
+      lastNanos = startNanos;
+      lastGeneration = generation;
+      lastEvaluations = evaluations;
+      lastAllocated = allocatedBytes();
+    }
+    if (generation % interval != 0) {
+      return;
+    }
+    
+    long now = System.nanoTime();
+    double seconds = Math.max(now - lastNanos, 1) / 1e9;
+    long allocated = allocatedBytes();
+    
+    int best = Integer.MAX_VALUE;
+    int worst = Integer.MIN_VALUE;
+    long total = 0;
+    for (int f : fitness) {
+      best = Math.min(best, f);
+      worst = Math.max(worst, f);
+      total += f;
+    }
+    
+    generationsPerSecond = (generation - lastGeneration) / seconds;
+    evaluationsPerSecond = (evaluations - lastEvaluations) / seconds;
+    bestFitness = best;
+    meanFitness = (double)total / fitness.length;
+    worstFitness = worst;
+    distinctEdges = countDistinctEdges(cities, members);
+    // threads that end take their counts with them, so the total can drop
+    allocationRate = allocated < 0
+            ? -1 : Math.max(allocated - lastAllocated, 0) / seconds;
+    sampleGeneration = generation;
+    
+    if (ringGeneration.length > 0) {
+      synchronized (this) {
+        int i = ringNext;
+        ringGeneration[i] = generation;
+        ringTime[i] = (now - startNanos) / 1000000;
+        ringGenerationRate[i] = generationsPerSecond;
+        ringEvaluationRate[i] = evaluationsPerSecond;
+        ringBest[i] = best;
+        ringMean[i] = meanFitness;
+        ringWorst[i] = worst;
+        ringEdges[i] = distinctEdges;
+        ringAllocation[i] = allocationRate;
+        ringNext = (i + 1) % ringGeneration.length;
+        ringCount = Math.min(ringCount + 1, ringGeneration.length);
+      }
+    }
+    
+    lastNanos = now;
+    lastGeneration = generation;
+    lastEvaluations = evaluations;
+    lastAllocated = allocated;
+  }
+  
+  /**
+   * Counts the different edges in a generation, by marking the cities that
+   * follow (and for symmetric tables precede) each city in any member.
+   */
+  private int countDistinctEdges(CityTable cities, Solution[] members) {
+    final int n = cities.getNumCities();
+    final boolean symmetric = cities.isSymmetric();
+    if (seen.length != n) {
+      seen = new int[n];
+    }
+    Arrays.fill(seen, -1);
+    
+    int count = 0;
+    for (int city = 0; city < n; city++) {
+      for (Solution s : members) {
+        int next = s.next(city);
+        if (seen[next] != city) {
+          seen[next] = city;
+          count++;
+        }
+        if (symmetric) {
+          int prev = s.prev(city);
+          if (seen[prev] != city) {
+            seen[prev] = city;
+            count++;
+          }
+        }
+      }
+    }
+    // each undirected edge was counted from both of its ends
+    return symmetric ? count / 2 : count;
+  }
+  
+  /**
+   * Gets the bytes allocated by every live thread, or -1 if unsupported.
+   */
+  private long allocatedBytes() {
+    if (!allocationSupported) {
+      return -1;
+    }
+    long[] ids = threads.getAllThreadIds();
+    long total = 0;
+    for (long bytes : ((com.sun.management.ThreadMXBean)threads)
+            .getThreadAllocatedBytes(ids)) {
+      // threads that ended since getting the ids report -1
+      total += Math.max(bytes, 0);
+    }
+    return total;
+  }
+}
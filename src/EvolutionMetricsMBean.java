@@ -0,0 +1,60 @@
+/**
+ * The JMX view of {@link EvolutionMetrics}: the latest sample of a running
+ * {@link Population}.
+ */
+public interface EvolutionMetricsMBean {
+  
+  /**
+   *
+   * @return The number of generations evolved.
+   */
+  long getGeneration();
+  
+  /**
+   *
+   * @return Generations per second over the latest sample interval.
+   */
+  double getGenerationsPerSecond();
+  
+  /**
+   *
+   * @return Solutions bred and scored per second over the latest sample
+   * interval.
+   */
+  double getEvaluationsPerSecond();
+  
+  /**
+   *
+   * @return The fitness of the best member of the latest sampled
+   * generation.
+   */
+  int getBestFitness();
+  
+  /**
+   *
+   * @return The mean fitness of the latest sampled generation.
+   */
+  double getMeanFitness();
+  
+  /**
+   *
+   * @return The fitness of the worst member of the latest sampled
+   * generation.
+   */
+  int getWorstFitness();
+  
+  /**
+   *
+   * @return The number of different edges used by the members of the latest
+   * sampled generation, from the number of cities when every member is the
+   * same tour up to the population size times that.
+   */
+  int getDistinctEdges();
+  
+  /**
+   *
+   * @return Bytes allocated per second by every thread over the latest
+   * sample interval, or -1 if the JVM cannot measure it.
+   */
+  double getAllocationRate();
+}
@@ -0,0 +1,31 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for one generation of a {@link Population}.  Only
+ * generations slower than a millisecond are recorded unless the threshold
+ * is lowered in the recording's settings.
+ */
+@Name("tsp.Generation")
+@Label("Generation")
+@Description("Breeding one generation of the genetic algorithm")
+@Category("Traveling Salesman")
+@Threshold("1 ms")
+@StackTrace(false)
+class GenerationEvent extends jdk.jfr.Event {
+  @Label("Cities")
+  int cities;
+  
+  @Label("Generation")
+  long generation;
+  
+  @Label("Population Size")
+  int populationSize;
+  
+  @Label("Best Fitness")
+  int bestFitness;
+}
@@ -0,0 +1,139 @@
+/**
+ * Solves with the genetic algorithm in {@link Population}.
+ */
+public class GeneticSolver implements Solver {
+  private final TerminationPolicy termination;
+  private final double mutationRate;
+  private final long seed;
+  private int workers = 1;
+  private int searchNeighbours = 0;
+  private boolean searchEliteOnly;
+  private double heuristicFraction = 0.0;
+  private EvolutionMetrics metrics;
+  // only set while solving, so a finished population can be collected
+  private volatile Population running;
+  private volatile Solution lastBest;
+  
+  /**
+   * Creates the solver.
+   * @param generations
+   * @param mutationRate
+   * @param seed
+   */
+  public GeneticSolver(int generations, double mutationRate, long seed) {
+    this(Termination.generations(generations), mutationRate, seed);
+  }
+  
+  /**
+   * Creates a solver that evolves until a policy says to stop, see
+   * {@link Termination}.
+   * @param termination
+   * @param mutationRate
+   * @param seed
+   */
+  public GeneticSolver(TerminationPolicy termination, double mutationRate,
+          long seed) {
+    if (termination == null) {
+      throw new IllegalArgumentException("termination is null");
+    }
+    if (mutationRate < 0.0 || mutationRate > 1.0) {
+      throw new IllegalArgumentException(
+              "mutationRate must be a percentage [0.0,1.0]");
+    }
+    this.termination = termination;
+    this.mutationRate = mutationRate;
+    this.seed = seed;
+  }
+  
+  /**
+   * Sets how many parts each generation is bred in, see
+   * {@link Population#setWorkers(int)}.
+   * @param workers
+   */
+  public void setWorkers(int workers) {
+    if (workers <= 0 || workers > Population.MAX_WORKERS) {
+      throw new IllegalArgumentException(
+              "workers must be in [1," + Population.MAX_WORKERS + "]");
+    }
+    this.workers = workers;
+  }
+  
+  /**
+   * Turns on local search, see
+   * {@link Population#setLocalSearch(int, boolean)}.
+   * @param neighbours
+   * @param eliteOnly
+   */
+  public void setLocalSearch(int neighbours, boolean eliteOnly) {
+    if (neighbours < 0) {
+      throw new IllegalArgumentException("neighbours < 0");
+    }
+    searchNeighbours = neighbours;
+    searchEliteOnly = eliteOnly;
+  }
+  
+  /**
+   * Sets the part of the initial population built by construction
+   * heuristics, see {@link Population#seedHeuristics(double)}.
+   * @param fraction
+   */
+  public void setHeuristicFraction(double fraction) {
+    if (fraction < 0.0 || fraction > 1.0) {
+      throw new IllegalArgumentException(
+              "fraction must be a percentage [0.0,1.0]");
+    }
+    heuristicFraction = fraction;
+  }
+  
+  /**
+   *
+   * @return
+   */
+  public long getSeed() {
+    return seed;
+  }
+  
+  /**
+   * Sets where metrics about each generation are recorded, see
+   * {@link Population#setMetrics(EvolutionMetrics)}.
+   * @param metrics Null for none, the default.
+   */
+  public void setMetrics(EvolutionMetrics metrics) {
+    this.metrics = metrics;
+  }
+  
+  /**
+   * Gets the best solution found so far by the running solve, see
+   * {@link Population#getBestSoFar()}, or the result of the last solve if
+   * none is running.  Safe to call from another thread.
+   * @return The solution, or null if no solve is running or has run.
+   */
+  public Solution getBestSoFar() {
+    Population pop = running;
+    return pop == null ? lastBest : pop.getBestSoFar();
+  }
+  
+  @Override
+  public Solution solve(CityTable cities) {
+    final int n = cities.getNumCities();
+    SolverPhaseEvent phase = Events.startPhase("genetic", "populate", n);
+    Population pop = new Population(cities, mutationRate, seed);
+    pop.setWorkers(workers);
+    pop.seedHeuristics(heuristicFraction);
+    pop.setLocalSearch(searchNeighbours, searchEliteOnly);
+    pop.setMetrics(metrics);
+    running = pop;
+    try {
+      Events.finishPhase(phase, pop.getBestSoFar().getFitness());
+    
+      phase = Events.startPhase("genetic", "evolve", n);
+      pop.evolve(termination);
+      Events.finishPhase(phase, pop.getBestSoFar().getFitness());
+      return new Solution(pop.getBestSoFar());
+    }
+    finally {
+      lastBest = pop.getBestSoFar();
+      running = null;
+    }
+  }
+}
@@ -0,0 +1,25 @@
+/**
+ * Multiplies the temperature by the same factor in every equal slice of the
+ * time limit, the usual schedule for simulated annealing.  Spends most of
+ * the time at low temperatures, where a good tour is refined.
+ */
+public class GeometricCooling implements CoolingSchedule {
+  private final double finalRatio;
+  
+  /**
+   * Creates the schedule.
+   * @param finalRatio The final temperature as a fraction of the initial
+   * one.
+   */
+  public GeometricCooling(double finalRatio) {
+    if (finalRatio <= 0.0 || finalRatio > 1.0) {
+      throw new IllegalArgumentException("finalRatio must be in (0.0,1.0]");
+    }
+    this.finalRatio = finalRatio;
+  }
+  
+  @Override
+  public double temperature(double initial, double progress) {
+    return initial * Math.pow(finalRatio, progress);
+  }
+}
@@ -0,0 +1,195 @@
+import java.util.stream.IntStream;
+
+/**
+ * Finds an optimal tour with the Held-Karp dynamic program over subsets of
+ * cities.  Takes O(2^n n^2) time and O(2^n n) memory, so is only usable for
+ * small tables.  Works for asymmetric tables too.
+ * <p>
+ * The table holds the length of the shortest path that starts at city 0,
+ * visits a set of the other cities and ends at a city j in the set.  It is
+ * stored as one int array grouped by j, with bit j left out of each set's
+ * index since it is always set, which halves the memory.  Sets with the same
+ * number of cities only depend on smaller sets, so each size is computed in
+ * parallel.  The tour is recovered by finding which step gave each value,
+ * rather than storing it.
+ */
+public class HeldKarpSolver implements Solver {
+  /** Largest table that can be solved. */
+  public static final int MAX_CITIES = 25;
+  /** Largest table that is solved exactly without being asked for. */
+  public static final int AUTO_MAX_CITIES = 20;
+  
+  // most parts each size of set is split into for the pool
+  private static final int CHUNKS = 1024;
+  
+  /**
+   * Checks whether a table is small enough to always be solved exactly.
+   * @param cities
+   * @return
+   */
+  public static boolean isSmall(CityTable cities) {
+    return cities.getNumCities() <= AUTO_MAX_CITIES;
+  }
+  
+  @Override
+  public Solution solve(CityTable cities) {
+    final int n = cities.getNumCities();
+    if (n > MAX_CITIES) {
+      throw new IllegalArgumentException(
+              "Held-Karp is limited to " + MAX_CITIES + " cities");
+    }
+    if (n <= 2) {
+      int[] tour = new int[n];
+      for (int i = 0; i < n; i++) {
+        tour[i] = i;
+      }
+      return new Solution(cities, tour);
+    }
+    
+    final int[][] dist = new int[n][n];
+    long maxDistance = 0;
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        dist[i][j] = cities.getDistanceUnchecked(i, j);
+        maxDistance = Math.max(maxDistance, dist[i][j]);
+      }
+    }
+    if (maxDistance * n > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+              "Distances are too large for Held-Karp");
+    }
+    
+    // city c of the program is city c + 1 of the table
+    final int m = n - 1;
+    final int half = 1 << (m - 1);
+    long bytes = (long)m * half * Integer.BYTES;
+    Runtime runtime = Runtime.getRuntime();
+    long free = runtime.maxMemory()
+            - (runtime.totalMemory() - runtime.freeMemory());
+    if (bytes > free) {
+      throw new IllegalStateException("Held-Karp needs " + (bytes >> 20)
+              + "MB for " + n + " cities but only " + (free >> 20)
+              + "MB is free");
+    }
+    
+    final int[] table = new int[m * half];
+    for (int j = 0; j < m; j++) {
+      table[j * half] = dist[0][j + 1];
+    }
+    final long[][] binomial = binomials(m);
+    SolverPhaseEvent phase = Events.startPhase("Held-Karp", "table", n);
+    for (int size = 2; size <= m; size++) {
+      final int k = size;
+      final long total = binomial[m][k];
+      final int chunks = (int)Math.min(total, CHUNKS);
+      IntStream.range(0, chunks).parallel().forEach(c -> {
+        long from = total * c / chunks;
+        long to = total * (c + 1) / chunks;
+        int set = unrank(from, k, m, binomial);
+        for (long r = from; r < to; r++) {
+          evaluate(set, table, half, dist);
+          set = nextSet(set);
+        }
+      });
+    }
+    
+    // close the tour back to city 0 from the best last city
+    final int all = (1 << m) - 1;
+    int last = -1;
+    int best = Integer.MAX_VALUE;
+    for (int j = 0; j < m; j++) {
+      int length = table[j * half + without(all, j)] + dist[j + 1][0];
+      if (length < best) {
+        best = length;
+        last = j;
+      }
+    }
+    Events.finishPhase(phase, best);
+    
+    // walk back through the table to find the step that gave each value
+    int[] tour = new int[n];
+    int set = all;
+    int j = last;
+    for (int pos = n - 1; pos > 1; pos--) {
+      tour[pos] = j + 1;
+      int rest = set & ~(1 << j);
+      int value = table[j * half + without(set, j)];
+      int prev = -1;
+      for (int bits = rest; bits != 0; bits &= bits - 1) {
+        int i = Integer.numberOfTrailingZeros(bits);
+        if (table[i * half + without(rest, i)] + dist[i + 1][j + 1]
+                == value) {
+          prev = i;
+          break;
+        }
+      }
+      set = rest;
+      j = prev;
+    }
+    tour[1] = j + 1;
+    return new Solution(cities, tour);
+  }
+  
+  /**
+   * Fills in the table for every last city of a set.
+   */
+  private static void evaluate(int set, int[] table, int half,
+          int[][] dist) {
+    for (int bitsJ = set; bitsJ != 0; bitsJ &= bitsJ - 1) {
+      int j = Integer.numberOfTrailingZeros(bitsJ);
+      int rest = set & ~(1 << j);
+      int best = Integer.MAX_VALUE;
+      for (int bitsI = rest; bitsI != 0; bitsI &= bitsI - 1) {
+        int i = Integer.numberOfTrailingZeros(bitsI);
+        int length = table[i * half + without(rest, i)] + dist[i + 1][j + 1];
+        if (length < best) {
+          best = length;
+        }
+      }
+      table[j * half + without(set, j)] = best;
+    }
+  }
+  
+  /**
+   * Gets the index of a set within its last city's part of the table, by
+   * removing the last city's bit.
+   */
+  private static int without(int set, int bit) {
+    return (set & ((1 << bit) - 1)) | ((set >>> (bit + 1)) << bit);
+  }
+  
+  /**
+   * Gets the next larger set with the same number of cities (Gosper's hack).
+   */
+  private static int nextSet(int set) {
+    int lowest = set & -set;
+    int ripple = set + lowest;
+    return (((ripple ^ set) >>> 2) / lowest) | ripple;
+  }
+  
+  /**
+   * Gets the set of k cities out of m at a position in increasing order.
+   */
+  private static int unrank(long rank, int k, int m, long[][] binomial) {
+    int set = 0;
+    for (int bit = m - 1; bit >= 0 && k > 0; bit--) {
+      if (rank >= binomial[bit][k]) {
+        set |= 1 << bit;
+        rank -= binomial[bit][k];
+        k--;
+      }
+    }
+    return set;
+  }
+  
+  private static long[][] binomials(int m) {
+    long[][] result = new long[m + 1][m + 1];
+    for (int i = 0; i <= m; i++) {
+      result[i][0] = 1;
+      for (int k = 1; k <= i; k++) {
+        result[i][k] = result[i - 1][k - 1] + result[i - 1][k];
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,429 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Runs an island model spread over several processes or machines.  Each
+ * {@link IslandWorker} that connects is sent the city table and evolves its
+ * own population; the best solution a worker sends every few generations is
+ * forwarded to the next running worker in a ring.  A worker that fails, or
+ * sends nothing, not even a heartbeat, for the timeout, is dropped and the
+ * rest carry on, and when all are finished the best solution any of them
+ * reported is the result.
+ */
+public class IslandCoordinator {
+  
+  private enum State {
+    STARTING, RUNNING, DONE, FAILED
+  }
+  
+  /**
+   * Told when a worker finishes or is dropped, on the thread serving it.
+   */
+  public interface Listener {
+    /**
+     * A worker sent its final solution.
+     * @param worker The index of the worker, in the order they connected.
+     * @param distance The distance of the worker's final solution.
+     */
+    void finished(int worker, int distance);
+    
+    /**
+     * A worker failed and the others carry on without it.
+     * @param worker The index of the worker, in the order they connected.
+     * @param reason
+     */
+    void failed(int worker, String reason);
+  }
+  
+  private final CityTable cities;
+  private final double mutationRate;
+  private final int generations;
+  private final int migrationInterval;
+  private final SplittableRandom seeds;
+  // the table in the binary format, sent to every worker
+  private final byte[] table;
+  private final List<Connection> connections = new CopyOnWriteArrayList<>();
+  private int timeoutMillis = IslandProtocol.TIMEOUT_MILLIS;
+  private volatile Listener listener;
+  
+  /**
+   * Creates the coordinator.
+   * @param cities
+   * @param mutationRate Mutation rate of every island.
+   * @param generations Generations each island evolves for.
+   * @param migrationInterval Generations between migrations.
+   * @param seed Seed the seeds of the islands are drawn from.
+   * @throws IOException
+   */
+  public IslandCoordinator(CityTable cities, double mutationRate,
+          int generations, int migrationInterval, long seed)
+          throws IOException {
+    if (generations < 0) {
+      throw new IllegalArgumentException("generations < 0");
+    }
+    if (migrationInterval <= 0) {
+      throw new IllegalArgumentException("migrationInterval must be > 0");
+    }
+    this.cities = cities;
+    this.mutationRate = mutationRate;
+    this.generations = generations;
+    this.migrationInterval = migrationInterval;
+    this.seeds = new SplittableRandom(seed);
+    
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryCityTableFormat.write(cities, Channels.newChannel(bytes));
+    table = bytes.toByteArray();
+  }
+  
+  /**
+   * Sets how long a worker may send nothing before it is failed.
+   * @param millis
+   */
+  public void setTimeoutMillis(int millis) {
+    if (millis <= 0) {
+      throw new IllegalArgumentException("timeout must be > 0");
+    }
+    timeoutMillis = millis;
+  }
+  
+  /**
+   * Sets who is told about workers finishing and failing.
+   * @param listener Null for nobody, the default.
+   */
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+  
+  /**
+   * Accepts workers and coordinates them until they have all finished or
+   * failed.
+   * @param server
+   * @param workers The number of workers to wait for.
+   * @param acceptTimeoutMillis How long to wait for each worker to connect
+   * before starting with the ones already connected, see
+   * {@link #getNumWorkers()}.
+   * @return The best solution reported by any worker, or null if none
+   * reported one.
+   * @throws IOException If accepting connections fails.
+   */
+  public Solution run(ServerSocket server, int workers,
+          int acceptTimeoutMillis) throws IOException {
+    List<Thread> threads = new ArrayList<>(workers);
+    Thread heartbeat = new Thread(this::sendHeartbeats, "island-heartbeat");
+    heartbeat.setDaemon(true);
+    heartbeat.start();
+    server.setSoTimeout(acceptTimeoutMillis);
+    while (connections.size() < workers) {
+      Socket socket;
+      try {
+        socket = server.accept();
+      }
+      catch (SocketTimeoutException ex) {
+        break;
+      }
+      
+      final Connection c = new Connection(connections.size(), socket,
+              seeds.nextLong());
+      connections.add(c);
+      Thread t = new Thread(() -> serve(c), "island-worker-" + c.index);
+      t.setDaemon(true);
+      t.start();
+      threads.add(t);
+    }
+    
+    for (Thread t : threads) {
+      try {
+        t.join();
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    heartbeat.interrupt();
+    return getBest();
+  }
+  
+  /**
+   * Gets the number of workers that connected, which is less than asked for
+   * if some did not connect in time.
+   * @return
+   */
+  public int getNumWorkers() {
+    return connections.size();
+  }
+  
+  /**
+   * Gets the best solution reported so far by any worker, including workers
+   * that have since failed.  Safe to call while running.
+   * @return The best solution, or null if none has been reported.
+   */
+  public Solution getBest() {
+    Solution result = null;
+    for (Connection c : connections) {
+      Solution s = c.best;
+      if (s != null && (result == null || s.getFitness() < result.getFitness())) {
+        result = s;
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Talks to one worker until it finishes or fails.
+   * @param c
+   */
+  private void serve(Connection c) {
+    try {
+      c.start();
+      while (true) {
+        byte type = c.in.readByte();
+        if (type == IslandProtocol.ALIVE) {
+          continue;
+        }
+        if (type != IslandProtocol.MIGRANT && type != IslandProtocol.DONE) {
+          throw new IOException("Unexpected message " + type);
+        }
+        Solution s = IslandProtocol.readTour(c.in, cities);
+        if (c.best == null || s.getFitness() < c.best.getFitness()) {
+          c.best = s;
+        }
+        
+        if (type == IslandProtocol.DONE) {
+          c.state = State.DONE;
+          Listener l = listener;
+          if (l != null) {
+            l.finished(c.index, s.getFitness());
+          }
+          return;
+        }
+        forward(c, s);
+      }
+    }
+    catch (SocketTimeoutException ex) {
+      fail(c, new IOException("nothing received for " + timeoutMillis
+              + " ms"));
+    }
+    catch (IOException ex) {
+      fail(c, ex);
+    }
+    finally {
+      c.close();
+    }
+  }
+  
+  /**
+   * Sends a migrant to the next running worker after the one it came from.
+   * @param from
+   * @param migrant
+   */
+  private void forward(Connection from, Solution migrant) {
+    final int n = connections.size();
+    for (int i = 1; i < n; i++) {
+      Connection to = connections.get((from.index + i) % n);
+      if (to.state == State.RUNNING) {
+        try {
+          to.send(migrant);
+        }
+        catch (IOException ex) {
+          fail(to, ex);
+          continue;
+        }
+        return;
+      }
+    }
+  }
+  
+  /**
+   * Tells every running worker the coordinator is still there, until
+   * interrupted.
+   */
+  private void sendHeartbeats() {
+    while (true) {
+      try {
+        Thread.sleep(IslandProtocol.HEARTBEAT_MILLIS);
+      }
+      catch (InterruptedException ex) {
+        return;
+      }
+      for (Connection c : connections) {
+        if (c.state == State.RUNNING) {
+          try {
+            c.sendAlive();
+          }
+          catch (IOException ex) {
+            fail(c, ex);
+          }
+        }
+      }
+    }
+  }
+  
+  private void fail(Connection c, IOException ex) {
+    synchronized (c) {
+      if (c.state == State.DONE || c.state == State.FAILED) {
+        return;
+      }
+      c.state = State.FAILED;
+    }
+    c.close();
+    Listener l = listener;
+    if (l != null) {
+      l.failed(c.index, ex.getMessage() == null ? "connection closed"
+              : ex.getMessage());
+    }
+  }
+  
+  /**
+   * The connection to one worker.
+   */
+  private final class Connection {
+    final int index;
+    final long seed;
+    final Socket socket;
+    final DataInputStream in;
+    final DataOutputStream out;
+    volatile State state = State.STARTING;
+    // best solution reported by the worker
+    volatile Solution best;
+    
+    Connection(int index, Socket socket, long seed) throws IOException {
+      this.index = index;
+      this.seed = seed;
+      this.socket = socket;
+      socket.setTcpNoDelay(true);
+      socket.setKeepAlive(true);
+      socket.setSoTimeout(timeoutMillis);
+      in = new DataInputStream(
+              new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(
+              new BufferedOutputStream(socket.getOutputStream()));
+    }
+    
+    /**
+     * Checks the worker's greeting and sends it its settings.
+     */
+    void start() throws IOException {
+      if (in.readByte() != IslandProtocol.HELLO
+              || in.readInt() != IslandProtocol.MAGIC) {
+        throw new IOException("Not an island worker");
+      }
+      if (in.readShort() != IslandProtocol.VERSION) {
+        throw new IOException("Unsupported protocol version");
+      }
+      
+      synchronized (this) {
+        out.writeByte(IslandProtocol.CONFIG);
+        out.writeLong(seed);
+        out.writeDouble(mutationRate);
+        out.writeInt(generations);
+        out.writeInt(migrationInterval);
+        out.write(table);
+        out.flush();
+        if (state == State.STARTING) {
+          state = State.RUNNING;
+        }
+      }
+    }
+    
+    synchronized void send(Solution migrant) throws IOException {
+      out.writeByte(IslandProtocol.MIGRANT);
+      IslandProtocol.writeTour(out, migrant);
+      out.flush();
+    }
+    
+    synchronized void sendAlive() throws IOException {
+      out.writeByte(IslandProtocol.ALIVE);
+      out.flush();
+    }
+    
+    void close() {
+      try {
+        socket.close();
+      }
+      catch (IOException ex) {
+        // nothing more to do with this worker
+      }
+    }
+  }
+  
+  /**
+   * Runs a coordinator.
+   * @param args The table file, port, number of workers, generations,
+   * generations between migrations, and optionally the mutation rate and
+   * seed.
+   */
+  public static void main(String[] args) {
+    if (args.length < 5 || args.length > 7) {
+      System.out.println("Usage: IslandCoordinator <file> <port> <workers> "
+              + "<generations> <interval> [mutation rate] [seed]");
+      return;
+    }
+    
+    try {
+      CityTable cities = CityTable.loadFromFile(args[0]);
+      if (cities == null) {
+        return;
+      }
+      int port = Integer.parseInt(args[1]);
+      int workers = Integer.parseInt(args[2]);
+      int generations = Integer.parseInt(args[3]);
+      int interval = Integer.parseInt(args[4]);
+      double mutationRate = args.length > 5 ? Double.parseDouble(args[5]) : 0.1;
+      long seed = args.length > 6 ? Long.parseLong(args[6]) : System.nanoTime();
+      
+      IslandCoordinator coordinator = new IslandCoordinator(cities,
+              mutationRate, generations, interval, seed);
+      coordinator.setListener(new Listener() {
+        @Override
+        public void finished(int worker, int distance) {
+          System.out.println("Worker " + worker + " finished with distance "
+                  + distance);
+        }
+        
+        @Override
+        public void failed(int worker, String reason) {
+          System.out.println("Worker " + worker + " failed (" + reason
+                  + "), continuing without it");
+        }
+      });
+      try (ServerSocket server = new ServerSocket(port)) {
+        System.out.println("Waiting for " + workers + " workers on port "
+                + server.getLocalPort() + ", seed: " + seed);
+        Solution best = coordinator.run(server, workers, 60000);
+        if (coordinator.getNumWorkers() < workers) {
+          System.out.println("Only " + coordinator.getNumWorkers() + " of "
+                  + workers + " workers connected");
+        }
+        if (best == null) {
+          System.out.println("No worker reported a solution");
+        }
+        else {
+          System.out.println("Solution: " + best);
+          System.out.println("Distance: " + best.getFitness());
+        }
+      }
+    }
+    catch (NumberFormatException ex) {
+      System.out.println("Invalid number");
+    }
+    catch (IllegalArgumentException ex) {
+      System.out.println(ex.getMessage());
+    }
+    catch (IOException ex) {
+      System.out.println("Error: " + ex.getMessage());
+    }
+  }
+}
@@ -0,0 +1,221 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs several populations ("islands") side by side, each on its own thread.
+ * Every few generations each island sends a copy of its best solution to its
+ * neighbours, so good tours spread without the islands all converging on the
+ * same one.  Migrants are handed over through lock free queues, so islands
+ * never wait for each other.
+ */
+public class IslandModel {
+  
+  /**
+   * Which islands send their best solutions to which.
+   */
+  public enum Topology {
+    /** Each island sends to the next one, the last to the first. */
+    RING,
+    /** Each island sends to all the others. */
+    FULL
+  }
+  
+  private final Population[] islands;
+  private final int[][] neighbours;
+  // migrants waiting to be taken in by each island
+  private final List<ConcurrentLinkedQueue<Solution>> inboxes;
+  // copy of each island's best as of its last migration
+  private final AtomicReferenceArray<Solution> bests;
+  private final int migrationInterval;
+  private final long seed;
+  
+  /**
+   * Creates islands that all use the same mutation rate.
+   * @param cities
+   * @param numIslands
+   * @param mutationRate
+   * @param topology
+   * @param migrationInterval Generations between migrations.
+   * @param seed Seed the seeds of the islands are drawn from.
+   */
+  public IslandModel(CityTable cities, int numIslands, double mutationRate,
+          Topology topology, int migrationInterval, long seed) {
+    this(cities, sameRates(numIslands, mutationRate), topology,
+            migrationInterval, seed);
+  }
+  
+  /**
+   * Creates one island for each mutation rate.
+   * @param cities
+   * @param mutationRates
+   * @param topology
+   * @param migrationInterval Generations between migrations.
+   * @param seed Seed the seeds of the islands are drawn from.
+   */
+  public IslandModel(CityTable cities, double[] mutationRates,
+          Topology topology, int migrationInterval, long seed) {
+    if (mutationRates.length == 0) {
+      throw new IllegalArgumentException("there must be at least one island");
+    }
+    if (migrationInterval <= 0) {
+      throw new IllegalArgumentException("migrationInterval must be > 0");
+    }
+    
+    final int k = mutationRates.length;
+    this.migrationInterval = migrationInterval;
+    this.seed = seed;
+    SplittableRandom seeds = new SplittableRandom(seed);
+    islands = new Population[k];
+    bests = new AtomicReferenceArray<>(k);
+    inboxes = new ArrayList<>(k);
+    for (int i = 0; i < k; i++) {
+      islands[i] = new Population(cities, mutationRates[i], seeds.nextLong());
+      bests.set(i, islands[i].getBestSoFar());
+      inboxes.add(new ConcurrentLinkedQueue<>());
+    }
+    
+    neighbours = new int[k][];
+    for (int i = 0; i < k; i++) {
+      if (k == 1) {
+        neighbours[i] = new int[0];
+      }
+      else if (topology == Topology.RING) {
+        neighbours[i] = new int[] {(i + 1) % k};
+      }
+      else {
+        neighbours[i] = new int[k - 1];
+        for (int j = 0, n = 0; j < k; j++) {
+          if (j != i) {
+            neighbours[i][n++] = j;
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   *
+   * @return
+   */
+  public int getNumIslands() {
+    return islands.length;
+  }
+  
+  /**
+   *
+   * @return The seed the islands were created with.
+   */
+  public long getSeed() {
+    return seed;
+  }
+  
+  /**
+   * Gets the best solution one island had found as of its last migration.
+   * Safe to call while the islands are evolving.
+   * @param island
+   * @return
+   */
+  public Solution getBest(int island) {
+    return bests.get(island);
+  }
+  
+  /**
+   * Gets the best solution of all the islands as of their last migrations.
+   * Safe to call while the islands are evolving.
+   * @return
+   */
+  public Solution getBest() {
+    Solution result = bests.get(0);
+    for (int i = 1; i < bests.length(); i++) {
+      Solution s = bests.get(i);
+      if (s.getFitness() < result.getFitness()) {
+        result = s;
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Evolves every island for the number of generations, each on its own
+   * thread.  Which migrants an island has received when it takes them in
+   * depends on the timing of the threads, so unlike a single population a
+   * run is not reproducible from the seed alone.
+   * @param generations
+   */
+  public void evolve(final int generations) {
+    ExecutorService pool = Executors.newFixedThreadPool(islands.length, r -> {
+      Thread t = new Thread(r, "island");
+      t.setDaemon(true);
+      return t;
+    });
+    try {
+      List<Future<?>> runs = new ArrayList<>(islands.length);
+      for (int i = 0; i < islands.length; i++) {
+        final int island = i;
+        runs.add(pool.submit(() -> run(island, generations)));
+      }
+      for (Future<?> run : runs) {
+        run.get();
+      }
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)ex.getCause();
+      }
+      throw new IllegalStateException(ex.getCause());
+    }
+    finally {
+      pool.shutdownNow();
+    }
+  }
+  
+  /**
+   * Evolves one island, migrating every migrationInterval generations.
+   * @param island
+   * @param generations
+   */
+  private void run(int island, int generations) {
+    Population pop = islands[island];
+    ConcurrentLinkedQueue<Solution> inbox = inboxes.get(island);
+    
+    for (int done = 0; done < generations; ) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      int step = Math.min(migrationInterval, generations - done);
+      pop.evolve(step);
+      done += step;
+      
+      // the copy is never changed, so it can be shared by every neighbour
+      Solution best = pop.getBestSoFar();
+      bests.set(island, best);
+      for (int n : neighbours[island]) {
+        inboxes.get(n).offer(best);
+      }
+      Solution migrant;
+      while ((migrant = inbox.poll()) != null) {
+        pop.immigrate(migrant);
+      }
+    }
+  }
+  
+  private static double[] sameRates(int numIslands, double mutationRate) {
+    if (numIslands <= 0) {
+      throw new IllegalArgumentException("numIslands must be > 0");
+    }
+    double[] rates = new double[numIslands];
+    Arrays.fill(rates, mutationRate);
+    return rates;
+  }
+}
@@ -0,0 +1,101 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The messages exchanged by {@link IslandCoordinator} and
+ * {@link IslandWorker} over TCP.  Every message is a type byte followed by
+ * big-endian fields:
+ * <pre>
+ *   HELLO    worker to coordinator: int magic number ("TSPI"), short version
+ *   CONFIG   coordinator to worker: long seed, double mutation rate,
+ *            int generations, int migration interval, then the city table in
+ *            the binary table format
+ *   MIGRANT  either way: a tour, the sender's best so far
+ *   DONE     worker to coordinator: a tour, the worker's final best
+ *   ALIVE    either way: nothing, sent every {@link #HEARTBEAT_MILLIS} so
+ *            the other side can tell a slow peer from a dead one
+ * </pre>
+ * A tour is its int fitness followed by the cities in order, as unsigned
+ * shorts when there are at most 65536 cities and as ints otherwise.
+ */
+final class IslandProtocol {
+  static final int MAGIC = 0x54535049;
+  static final short VERSION = 2;
+  
+  static final byte HELLO = 1;
+  static final byte CONFIG = 2;
+  static final byte MIGRANT = 3;
+  static final byte DONE = 4;
+  static final byte ALIVE = 5;
+  
+  /** How often each side says it is still there. */
+  static final int HEARTBEAT_MILLIS = 1000;
+  /**
+   * How long the coordinator waits for any message from a worker before
+   * failing it.  Workers wait twice as long, since the coordinator may miss
+   * heartbeats while it is stuck writing to a worker it is about to fail.
+   */
+  static final int TIMEOUT_MILLIS = 30000;
+  
+  // largest number of cities sent as unsigned shorts
+  private static final int MAX_SHORT_CITIES = 0x10000;
+  
+  private IslandProtocol() {
+  }
+  
+  /**
+   * Writes a tour.
+   * @param out
+   * @param solution Must have a known fitness.
+   * @throws IOException
+   */
+  static void writeTour(DataOutput out, Solution solution) throws IOException {
+    int[] tour = solution.getTour();
+    out.writeInt(solution.getFitness());
+    if (tour.length <= MAX_SHORT_CITIES) {
+      for (int city : tour) {
+        out.writeShort(city);
+      }
+    }
+    else {
+      for (int city : tour) {
+        out.writeInt(city);
+      }
+    }
+  }
+  
+  /**
+   * Reads a tour and checks it against the table.
+   * @param in
+   * @param cities
+   * @return
+   * @throws IOException If the tour is not valid for the table.
+   */
+  static Solution readTour(DataInput in, CityTable cities) throws IOException {
+    int fitness = in.readInt();
+    int[] tour = new int[cities.getNumCities()];
+    if (tour.length <= MAX_SHORT_CITIES) {
+      for (int i = 0; i < tour.length; i++) {
+        tour[i] = in.readUnsignedShort();
+      }
+    }
+    else {
+      for (int i = 0; i < tour.length; i++) {
+        tour[i] = in.readInt();
+      }
+    }
+    
+    Solution result;
+    try {
+      result = new Solution(cities, tour);
+    }
+    catch (IllegalArgumentException ex) {
+      throw new IOException("Invalid tour: " + ex.getMessage());
+    }
+    if (result.getFitness() != fitness) {
+      throw new IOException("Tour does not have the fitness sent with it");
+    }
+    return result;
+  }
+}
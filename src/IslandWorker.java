@@ -0,0 +1,196 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One island of a distributed island model.  Connects to an
+ * {@link IslandCoordinator}, receives the city table and its settings, then
+ * evolves a {@link Population} locally, sending its best solution to the
+ * coordinator every few generations and taking in the migrants the
+ * coordinator forwards from other islands.  Both sides send heartbeats, and
+ * a worker that hears nothing from the coordinator for twice its timeout
+ * gives up.
+ */
+public class IslandWorker {
+  // how long to wait for the coordinator to close after the final best
+  private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+  
+  private final String host;
+  private final int port;
+  private int timeoutMillis = 2 * IslandProtocol.TIMEOUT_MILLIS;
+  
+  /**
+   * Creates the worker.
+   * @param host Host of the coordinator.
+   * @param port Port of the coordinator.
+   */
+  public IslandWorker(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+  
+  /**
+   * Sets how long the coordinator may send nothing before the worker gives
+   * up on it.
+   * @param millis
+   */
+  public void setTimeoutMillis(int millis) {
+    if (millis <= 0) {
+      throw new IllegalArgumentException("timeout must be > 0");
+    }
+    timeoutMillis = millis;
+  }
+  
+  /**
+   * Connects to the coordinator and evolves until the number of generations
+   * it asked for is done.
+   * @return The best solution found by this island.
+   * @throws IOException If the connection fails or the coordinator stops
+   * responding.
+   */
+  public Solution run() throws IOException {
+    try (Socket socket = new Socket(host, port)) {
+      socket.setTcpNoDelay(true);
+      socket.setKeepAlive(true);
+      socket.setSoTimeout(timeoutMillis);
+      final DataInputStream in = new DataInputStream(
+              new BufferedInputStream(socket.getInputStream()));
+      final DataOutputStream out = new DataOutputStream(
+              new BufferedOutputStream(socket.getOutputStream()));
+      
+      out.writeByte(IslandProtocol.HELLO);
+      out.writeInt(IslandProtocol.MAGIC);
+      out.writeShort(IslandProtocol.VERSION);
+      out.flush();
+      
+      if (in.readByte() != IslandProtocol.CONFIG) {
+        throw new IOException("Expected the settings from the coordinator");
+      }
+      long seed = in.readLong();
+      double mutationRate = in.readDouble();
+      int generations = in.readInt();
+      int migrationInterval = in.readInt();
+      if (generations < 0 || migrationInterval <= 0) {
+        throw new IOException("Invalid settings from the coordinator");
+      }
+      final CityTable cities = BinaryCityTableFormat.read(
+              Channels.newChannel(in));
+      
+      Population pop = new Population(cities, mutationRate, seed);
+      pop.setWorkers(Math.min(Runtime.getRuntime().availableProcessors(),
+              Population.MAX_WORKERS));
+      
+      // migrants are read on their own thread so evolving never waits
+      final ConcurrentLinkedQueue<Solution> inbox =
+              new ConcurrentLinkedQueue<>();
+      final AtomicReference<IOException> lost = new AtomicReference<>();
+      Thread reader = new Thread(() -> {
+        try {
+          while (true) {
+            byte type = in.readByte();
+            if (type == IslandProtocol.MIGRANT) {
+              inbox.offer(IslandProtocol.readTour(in, cities));
+            }
+            else if (type != IslandProtocol.ALIVE) {
+              throw new IOException("Unexpected message " + type);
+            }
+          }
+        }
+        catch (EOFException ex) {
+          // the coordinator is finished with this island
+        }
+        catch (SocketTimeoutException ex) {
+          lost.set(new IOException("Nothing received from the coordinator for "
+                  + timeoutMillis + " ms"));
+        }
+        catch (IOException ex) {
+          lost.set(ex);
+        }
+      }, "island-migrants");
+      reader.setDaemon(true);
+      reader.start();
+      Thread heartbeat = new Thread(() -> {
+        try {
+          while (true) {
+            Thread.sleep(IslandProtocol.HEARTBEAT_MILLIS);
+            synchronized (out) {
+              out.writeByte(IslandProtocol.ALIVE);
+              out.flush();
+            }
+          }
+        }
+        catch (InterruptedException | IOException ex) {
+          // finished, or the next migration will find the connection broken
+        }
+      }, "island-heartbeat");
+      heartbeat.setDaemon(true);
+      heartbeat.start();
+      
+      for (int done = 0; done < generations; ) {
+        int step = Math.min(migrationInterval, generations - done);
+        pop.evolve(step);
+        done += step;
+        
+        if (lost.get() != null) {
+          heartbeat.interrupt();
+          throw lost.get();
+        }
+        synchronized (out) {
+          out.writeByte(IslandProtocol.MIGRANT);
+          IslandProtocol.writeTour(out, pop.getBest());
+          out.flush();
+        }
+        Solution migrant;
+        while ((migrant = inbox.poll()) != null) {
+          pop.immigrate(migrant);
+        }
+      }
+      
+      synchronized (out) {
+        out.writeByte(IslandProtocol.DONE);
+        IslandProtocol.writeTour(out, pop.getBestSoFar());
+        out.flush();
+        socket.shutdownOutput();
+      }
+      heartbeat.interrupt();
+      try {
+        reader.join(CLOSE_TIMEOUT_MILLIS);
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      return pop.getBestSoFar();
+    }
+  }
+  
+  /**
+   * Runs a worker.
+   * @param args The host and port of the coordinator.
+   */
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      System.out.println("Usage: IslandWorker <host> <port>");
+      return;
+    }
+    
+    try {
+      Solution best = new IslandWorker(args[0],
+              Integer.parseInt(args[1])).run();
+      System.out.println("Distance: " + best.getFitness());
+    }
+    catch (NumberFormatException ex) {
+      System.out.println("Invalid port");
+    }
+    catch (IOException ex) {
+      System.out.println("Connection error: " + ex.getMessage());
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * Writes the small JSON objects the batch mode and the solve service
+ * produce.
+ */
+final class Json {
+  private Json() {
+  }
+  
+  /**
+   * Appends a string as a quoted JSON string.
+   * @param sb
+   * @param s
+   */
+  static void quote(StringBuilder sb, String s) {
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      }
+      else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int)c));
+      }
+      else {
+        sb.append(c);
+      }
+    }
+    sb.append('"');
+  }
+  
+  /**
+   * Appends the fields describing a solved table, each preceded by a comma.
+   * @param sb
+   * @param solver The name of the solver.
+   * @param best
+   * @param seed
+   * @param millis How long solving took.
+   * @param tour Whether to include the tour.
+   */
+  static void appendSolution(StringBuilder sb, String solver, Solution best,
+          long seed, long millis, boolean tour) {
+    int[] cities = best.getTour();
+    sb.append(",\"solver\":");
+    quote(sb, solver);
+    sb.append(",\"cities\":").append(cities.length);
+    sb.append(",\"distance\":").append(best.getDistance());
+    sb.append(",\"seed\":").append(seed);
+    sb.append(",\"millis\":").append(millis);
+    if (tour) {
+      sb.append(",\"tour\":[");
+      for (int i = 0; i < cities.length; i++) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        sb.append(cities[i]);
+      }
+      sb.append(']');
+    }
+  }
+  
+  /**
+   * Creates an object with one string field.
+   * @param name
+   * @param value
+   * @return
+   */
+  static String object(String name, String value) {
+    StringBuilder sb = new StringBuilder("{");
+    quote(sb, name);
+    sb.append(':');
+    quote(sb, value);
+    return sb.append('}').toString();
+  }
+}
@@ -0,0 +1,159 @@
+import java.util.SplittableRandom;
+
+/**
+ * Solves with iterated Lin-Kernighan: a greedy edge tour is improved to a
+ * local optimum with {@link LocalSearch} using chains of flips and Or-opt
+ * moves, then repeatedly kicked with a random double bridge and improved
+ * again around the kick, keeping the result when it is no worse.  Runs until
+ * a time limit.  Only works for symmetric tables.
+ */
+public class LinKernighanSolver implements Solver {
+  // longest segment swapped by a double bridge kick
+  private static final int KICK_SEGMENT = 50;
+  
+  private final long timeLimitNanos;
+  private final long seed;
+  private int neighbours = 8;
+  private int maxDepth = 50;
+  
+  /**
+   * Creates the solver.
+   * @param timeLimitMillis How long to keep kicking the tour.
+   * @param seed
+   */
+  public LinKernighanSolver(long timeLimitMillis, long seed) {
+    if (timeLimitMillis < 0) {
+      throw new IllegalArgumentException("timeLimitMillis < 0");
+    }
+    this.timeLimitNanos = timeLimitMillis * 1000000;
+    this.seed = seed;
+  }
+  
+  /**
+   * Sets how many nearest neighbours of each city are candidates for new
+   * edges.  The default is 8.
+   * @param neighbours
+   */
+  public void setNeighbours(int neighbours) {
+    if (neighbours <= 0) {
+      throw new IllegalArgumentException("neighbours must be > 0");
+    }
+    this.neighbours = neighbours;
+  }
+  
+  /**
+   * Sets the longest chain of flips in one move.  The default is 50.
+   * @param maxDepth
+   */
+  public void setMaxDepth(int maxDepth) {
+    if (maxDepth <= 0) {
+      throw new IllegalArgumentException("maxDepth must be > 0");
+    }
+    this.maxDepth = maxDepth;
+  }
+  
+  /**
+   *
+   * @return
+   */
+  public long getSeed() {
+    return seed;
+  }
+  
+  @Override
+  public Solution solve(CityTable cities) {
+    if (!cities.isSymmetric()) {
+      throw new IllegalArgumentException(
+              "Lin-Kernighan needs a symmetric table");
+    }
+    // too small for the moves, but small enough to solve exactly
+    if (cities.getNumCities() < 8) {
+      return new HeldKarpSolver().solve(cities);
+    }
+    final long deadline = System.nanoTime() + timeLimitNanos;
+    SplittableRandom rand = new SplittableRandom(seed);
+    NeighbourLists lists = cities.getNearestNeighbours(neighbours);
+    LocalSearch search = new LocalSearch(cities, lists);
+    search.setMaxDepth(maxDepth);
+    
+    final int n = cities.getNumCities();
+    SolverPhaseEvent phase = Events.startPhase("Lin-Kernighan",
+            "construct", n);
+    Solution current = new Solution(cities,
+            Construction.greedyEdge(cities, lists));
+    Events.finishPhase(phase, current.getFitness());
+    
+    phase = Events.startPhase("Lin-Kernighan", "descend", n);
+    search.improve(current);
+    Solution best = new Solution(current);
+    Events.finishPhase(phase, best.getFitness());
+    
+    phase = Events.startPhase("Lin-Kernighan", "kick", n);
+    
+    while (System.nanoTime() < deadline) {
+      kick(cities, current, rand, search);
+      search.improveTouched(current);
+      if (current.getFitness() < best.getFitness()) {
+        best.copyFrom(current);
+      }
+      else if (current.getFitness() > best.getFitness()) {
+        current.copyFrom(best);
+      }
+    }
+    Events.finishPhase(phase, best.getFitness());
+    return best;
+  }
+  
+  /**
+   * Makes a double bridge move on a random part of the tour: the path
+   * a B C d becomes a C B d, with B and C short segments.  Done as three
+   * flips, which only reverse the short segments.
+   * @param cities
+   * @param s
+   * @param rand
+   * @param search Told which cities the kick touched.
+   */
+  private static void kick(CityTable cities, Solution s,
+          SplittableRandom rand, LocalSearch search) {
+    final int maxLength = Math.min(KICK_SEGMENT,
+            (cities.getNumCities() - 2) / 2);
+    int a = rand.nextInt(cities.getNumCities());
+    int b1 = s.next(a);
+    int bEnd = b1;
+    for (int i = rand.nextInt(maxLength); i > 0; i--) {
+      bEnd = s.next(bEnd);
+    }
+    int c1 = s.next(bEnd);
+    int cEnd = c1;
+    for (int i = rand.nextInt(maxLength); i > 0; i--) {
+      cEnd = s.next(cEnd);
+    }
+    int d1 = s.next(cEnd);
+    
+    int delta = cities.getDistanceUnchecked(a, c1)
+            + cities.getDistanceUnchecked(cEnd, b1)
+            + cities.getDistanceUnchecked(bEnd, d1)
+            - cities.getDistanceUnchecked(a, b1)
+            - cities.getDistanceUnchecked(bEnd, c1)
+            - cities.getDistanceUnchecked(cEnd, d1);
+    
+    // a cEnd..c1 bEnd..b1 d1
+    s.twoOptMove(a, b1, cEnd, d1);
+    // a c1..cEnd bEnd..b1 d1
+    if (c1 != cEnd) {
+      s.twoOptMove(a, cEnd, c1, bEnd);
+    }
+    // a c1..cEnd b1..bEnd d1
+    if (b1 != bEnd) {
+      s.twoOptMove(cEnd, bEnd, b1, d1);
+    }
+    s.addToFitness(delta);
+    
+    search.touch(a);
+    search.touch(b1);
+    search.touch(bEnd);
+    search.touch(c1);
+    search.touch(cEnd);
+    search.touch(d1);
+  }
+}
@@ -0,0 +1,26 @@
+/**
+ * Lowers the temperature by the same amount in every equal slice of the
+ * time limit.  Spends more time at high temperatures than
+ * {@link GeometricCooling}, which suits rugged tables with many local
+ * optima.
+ */
+public class LinearCooling implements CoolingSchedule {
+  private final double finalRatio;
+  
+  /**
+   * Creates the schedule.
+   * @param finalRatio The final temperature as a fraction of the initial
+   * one.
+   */
+  public LinearCooling(double finalRatio) {
+    if (finalRatio < 0.0 || finalRatio > 1.0) {
+      throw new IllegalArgumentException("finalRatio must be in [0.0,1.0]");
+    }
+    this.finalRatio = finalRatio;
+  }
+  
+  @Override
+  public double temperature(double initial, double progress) {
+    return initial * (1.0 - (1.0 - finalRatio) * progress);
+  }
+}
@@ -0,0 +1,23 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for loading a city table from a file.
+ */
+@Name("tsp.Load")
+@Label("Load City Table")
+@Description("Loading a city table from a file")
+@Category("Traveling Salesman")
+class LoadEvent extends jdk.jfr.Event {
+  @Label("Path")
+  String path;
+  
+  @Label("Format")
+  String format;
+  
+  @Label("Cities")
+  @Description("Number of cities loaded, or -1 if the file was invalid")
+  int cities = -1;
+}
@@ -0,0 +1,366 @@
+/**
+ * Improves a tour with 2-opt and Or-opt moves until neither finds an
+ * improvement.  With a depth above 1, 2-opt is replaced by Lin-Kernighan
+ * style moves: chains of up to that many 2-opt flips, kept up to the point
+ * with the best gain.  Moves are only tried towards each city's nearest
+ * neighbours, and a queue of cities whose surroundings have changed ("don't
+ * look bits") means a pass over a nearly optimal tour takes close to linear
+ * time.  Only works for symmetric tables, as 2-opt reverses part of the
+ * tour.  Not thread safe, so each thread needs its own instance.
+ */
+final class LocalSearch {
+  // longest segment moved by Or-opt
+  private static final int MAX_SEGMENT = 3;
+  // smallest tour the moves make sense for
+  private static final int MIN_CITIES = 8;
+  
+  private final CityTable cities;
+  private final NeighbourLists neighbours;
+  // cities waiting to be looked at, as a ring buffer
+  private final int[] queue;
+  private final boolean[] queued;
+  private int head;
+  private int count;
+  private final int[] segment = new int[MAX_SEGMENT];
+  // the flips of the Lin-Kernighan move being built, four cities each
+  private int[] flips = new int[0];
+  private int maxDepth = 1;
+  
+  /**
+   * Creates the search.
+   * @param cities Must be symmetric.
+   * @param neighbours The candidates for new edges from each city.
+   */
+  LocalSearch(CityTable cities, NeighbourLists neighbours) {
+    if (!cities.isSymmetric()) {
+      throw new IllegalArgumentException(
+              "local search needs a symmetric table");
+    }
+    this.cities = cities;
+    this.neighbours = neighbours;
+    queue = new int[cities.getNumCities()];
+    queued = new boolean[cities.getNumCities()];
+  }
+  
+  /**
+   * Sets the longest chain of flips in one move.
+   * @param maxDepth 1 for plain 2-opt.
+   */
+  void setMaxDepth(int maxDepth) {
+    if (maxDepth <= 0) {
+      throw new IllegalArgumentException("maxDepth must be > 0");
+    }
+    this.maxDepth = maxDepth;
+    flips = new int[4 * maxDepth];
+  }
+  
+  /**
+   * Improves a solution until it is a local optimum.
+   * @param s
+   * @return How much shorter the tour has become.
+   */
+  int improve(Solution s) {
+    for (int city = 0; city < queue.length; city++) {
+      push(city);
+    }
+    return improveTouched(s);
+  }
+  
+  /**
+   * Marks a city whose edges have changed, so the next call to
+   * {@link #improveTouched(Solution)} looks for moves around it.
+   * @param city
+   */
+  void touch(int city) {
+    push(city);
+  }
+  
+  /**
+   * Improves a solution by only looking for moves around the cities that
+   * have been touched, and the cities touched by the moves made.  After a
+   * small change to a local optimum this is much faster than
+   * {@link #improve(Solution)}.
+   * @param s
+   * @return How much shorter the tour has become.
+   */
+  int improveTouched(Solution s) {
+    if (s.getFitness() < 0) {
+      s.calculateFitness();
+    }
+    if (queue.length < MIN_CITIES) {
+      while (count > 0) {
+        pop();
+      }
+      return 0;
+    }
+    
+    int gain = 0;
+    while (count > 0) {
+      int city = pop();
+      int g = maxDepth > 1 ? linKernighan(s, city) : twoOpt(s, city);
+      if (g == 0) {
+        g = orOpt(s, city);
+      }
+      if (g > 0) {
+        gain += g;
+        push(city);
+      }
+    }
+    
+    if (gain > 0) {
+      s.addToFitness(-gain);
+    }
+    return gain;
+  }
+  
+  /**
+   * Looks for a 2-opt move that replaces one of the edges of a city with an
+   * edge to one of its neighbours, and makes the first one found.
+   * @param s
+   * @param a
+   * @return The improvement, or 0 if there was none.
+   */
+  private int twoOpt(Solution s, int a) {
+    for (int dir = 0; dir < 2; dir++) {
+      int b = dir == 0 ? s.next(a) : s.prev(a);
+      int ab = distance(a, b);
+      for (int r = 0; r < neighbours.size(); r++) {
+        int c = neighbours.get(a, r);
+        int ac = distance(a, c);
+        // the new edge must be shorter than the one it replaces
+        if (ac >= ab) {
+          break;
+        }
+        int d = dir == 0 ? s.next(c) : s.prev(c);
+        if (c == b || d == a) {
+          continue;
+        }
+        int delta = ab + distance(c, d) - ac - distance(b, d);
+        if (delta > 0) {
+          s.twoOptMove(a, b, c, d);
+          push(a);
+          push(b);
+          push(c);
+          push(d);
+          return delta;
+        }
+      }
+    }
+    return 0;
+  }
+  
+  /**
+   * Looks for a Lin-Kernighan move starting by removing one of the edges of
+   * a city, and makes it if it improves the tour.
+   * @param s
+   * @param t1
+   * @return The improvement, or 0 if there was none.
+   */
+  private int linKernighan(Solution s, int t1) {
+    for (int dir = 0; dir < 2; dir++) {
+      int gain = linKernighan(s, t1, dir == 0 ? s.next(t1) : s.prev(t1));
+      if (gain > 0) {
+        return gain;
+      }
+    }
+    return 0;
+  }
+  
+  /**
+   * Builds a chain of flips starting by removing the edge (t1,t2).  Each
+   * flip adds an edge from t2 to a neighbour t3 and removes an edge of t3,
+   * leaving the tour closed by an edge back to t1 that the next flip
+   * removes.  The chain is undone back to the point with the best gain.
+   * @param s
+   * @param t1
+   * @param t2
+   * @return The improvement, or 0 if there was none.
+   */
+  private int linKernighan(Solution s, int t1, int t2) {
+    // length removed minus length added, not counting the closing edge
+    int open = distance(t1, t2);
+    int bestGain = 0;
+    int bestDepth = 0;
+    int depth = 0;
+    
+    while (depth < maxDepth) {
+      boolean forward = s.next(t2) == t1;
+      int bestT3 = -1;
+      int bestT4 = -1;
+      int bestOpen = 0;
+      for (int r = 0; r < neighbours.size(); r++) {
+        int t3 = neighbours.get(t2, r);
+        int g = open - distance(t2, t3);
+        if (g <= 0) {
+          break;
+        }
+        int t4 = forward ? s.next(t3) : s.prev(t3);
+        if (t3 == t1 || t4 == t2 || isAdded(t3, t4, depth)) {
+          continue;
+        }
+        // look one step ahead, at the length of the edge being removed
+        int value = g + distance(t3, t4);
+        if (bestT3 < 0 || value > bestOpen) {
+          bestT3 = t3;
+          bestT4 = t4;
+          bestOpen = value;
+        }
+      }
+      if (bestT3 < 0) {
+        break;
+      }
+      
+      s.twoOptMove(t2, t1, bestT3, bestT4);
+      flips[4 * depth] = t2;
+      flips[4 * depth + 1] = t1;
+      flips[4 * depth + 2] = bestT3;
+      flips[4 * depth + 3] = bestT4;
+      depth++;
+      open = bestOpen;
+      int closed = open - distance(bestT4, t1);
+      if (closed > bestGain) {
+        bestGain = closed;
+        bestDepth = depth;
+      }
+      t2 = bestT4;
+    }
+    
+    // undo the flips after the best point, last first
+    for (int i = depth - 1; i >= bestDepth; i--) {
+      s.twoOptMove(flips[4 * i], flips[4 * i + 2], flips[4 * i + 1],
+              flips[4 * i + 3]);
+    }
+    for (int i = 0; i < 4 * bestDepth; i++) {
+      push(flips[i]);
+    }
+    return bestGain;
+  }
+  
+  /**
+   * Checks whether an edge was added by one of the flips of the move being
+   * built, which must not be removed again.
+   */
+  private boolean isAdded(int a, int b, int depth) {
+    for (int i = 0; i < depth; i++) {
+      int x = flips[4 * i];
+      int y = flips[4 * i + 2];
+      if (x == a && y == b || x == b && y == a) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Looks for an Or-opt move that takes the segment of up to three cities
+   * starting at a city and puts it, either way round, between two cities
+   * next to one of the neighbours of its ends.  Makes the first one found.
+   * @param s
+   * @param a
+   * @return The improvement, or 0 if there was none.
+   */
+  private int orOpt(Solution s, int a) {
+    int s2 = a;
+    for (int length = 1; length <= MAX_SEGMENT; length++) {
+      if (length > 1) {
+        s2 = s.next(s2);
+      }
+      segment[length - 1] = s2;
+      final int s1 = a;
+      int p = s.prev(s1);
+      int n = s.next(s2);
+      int removed = distance(p, s1) + distance(s2, n) - distance(p, n);
+      if (removed <= 0) {
+        continue;
+      }
+      
+      for (int end = 0; end < 2; end++) {
+        int join = end == 0 ? s1 : s2;
+        for (int r = 0; r < neighbours.size(); r++) {
+          int c = neighbours.get(join, r);
+          if (distance(join, c) >= removed) {
+            break;
+          }
+          if (inSegment(c, length)) {
+            continue;
+          }
+          
+          // put the segment on either side of c, join next to c
+          for (int side = 0; side < 2; side++) {
+            int x = side == 0 ? c : s.prev(c);
+            int xn = s.next(x);
+            if (inSegment(x, length) || inSegment(xn, length) || xn == p) {
+              continue;
+            }
+            // the end of the segment that follows x in the new tour
+            int first = (x == c) == (join == s1) ? s1 : s2;
+            int last = first == s1 ? s2 : s1;
+            int delta = removed - distance(x, first) - distance(last, xn)
+                    + distance(x, xn);
+            if (delta > 0) {
+              moveSegment(s, s1, s2, p, n, x, xn, first == s2);
+              push(p);
+              push(n);
+              push(s1);
+              push(s2);
+              push(x);
+              push(xn);
+              return delta;
+            }
+          }
+        }
+      }
+    }
+    return 0;
+  }
+  
+  /**
+   * Moves the segment s1..s2 from between p and n to between x and xn, as a
+   * sequence of 2-opt moves.  x and xn must be outside the segment, with xn
+   * following x and not equal to p.
+   * @param reversed Whether s2 should follow x, rather than s1.
+   */
+  private static void moveSegment(Solution s, int s1, int s2, int p, int n,
+          int x, int xn, boolean reversed) {
+    // p x ... n s2 ... s1 xn
+    s.twoOptMove(p, s1, x, xn);
+    // p n ... x s2 ... s1 xn
+    if (x != n) {
+      s.twoOptMove(p, x, n, s2);
+    }
+    // x s1 ... s2 xn
+    if (!reversed && s1 != s2) {
+      s.twoOptMove(x, s2, s1, xn);
+    }
+  }
+  
+  private boolean inSegment(int city, int length) {
+    for (int i = 0; i < length; i++) {
+      if (segment[i] == city) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  private int distance(int a, int b) {
+    return cities.getDistanceUnchecked(a, b);
+  }
+  
+  private void push(int city) {
+    if (!queued[city]) {
+      queued[city] = true;
+      int tail = head + count;
+      queue[tail >= queue.length ? tail - queue.length : tail] = city;
+      count++;
+    }
+  }
+  
+  private int pop() {
+    int city = queue[head];
+    head = head + 1 == queue.length ? 0 : head + 1;
+    count--;
+    queued[city] = false;
+    return city;
+  }
+}
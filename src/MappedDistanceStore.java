@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only {@link DistanceStore} over a memory-mapped region of a file.
+ * The region is mapped in chunks so tables with more than 2^31 bytes of
+ * distances can be held off-heap.
+ */
+class MappedDistanceStore extends DistanceStore {
+  // each mapping is limited to 2GB, so the region is split into 1GB chunks
+  private static final int CHUNK_SHIFT = 30;
+  private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+  
+  private final MappedByteBuffer[] chunks;
+  private final int width;
+  private final int widthShift;
+  private final long size;
+  
+  /**
+   * Maps a region of a file.
+   * @param channel The file to map, which may be closed once this returns.
+   * @param offset Position of the first distance in the file.
+   * @param size The number of distances in the region.
+   * @param width The number of bytes used per distance.
+   * @throws IOException
+   */
+  MappedDistanceStore(FileChannel channel, long offset, long size, int width)
+          throws IOException {
+    if (width != Byte.BYTES && width != Short.BYTES && width != Integer.BYTES) {
+      throw new IllegalArgumentException("invalid width");
+    }
+    this.width = width;
+    this.widthShift = Integer.numberOfTrailingZeros(width);
+    this.size = size;
+    
+    long bytes = size << widthShift;
+    int numChunks = (int)((bytes + CHUNK_MASK) >>> CHUNK_SHIFT);
+    chunks = new MappedByteBuffer[numChunks];
+    for (int i = 0; i < numChunks; i++) {
+      long start = (long)i << CHUNK_SHIFT;
+      long length = Math.min(CHUNK_MASK + 1, bytes - start);
+      chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+              offset + start, length);
+    }
+  }
+  
+  @Override
+  int get(long index) {
+    // chunks are a multiple of the width, so no value straddles two of them
+    long position = index << widthShift;
+    MappedByteBuffer chunk = chunks[(int)(position >>> CHUNK_SHIFT)];
+    int offset = (int)(position & CHUNK_MASK);
+    switch (width) {
+      case Byte.BYTES:
+        return chunk.get(offset) & MAX_BYTE_DISTANCE;
+      case Short.BYTES:
+        return chunk.getShort(offset) & MAX_SHORT_DISTANCE;
+      default:
+        return chunk.getInt(offset);
+    }
+  }
+  
+  @Override
+  void set(long index, int distance) {
+    throw new UnsupportedOperationException("mapped tables are read-only");
+  }
+  
+  @Override
+  int width() {
+    return width;
+  }
+  
+  @Override
+  long size() {
+    return size;
+  }
+}
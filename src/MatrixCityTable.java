@@ -0,0 +1,32 @@
+/**
+ * A {@link CityTable} backed by a full N x N row-major distance matrix.
+ */
+class MatrixCityTable extends CityTable {
+  private final DistanceStore distances;
+  // cached as a long so the index math never overflows
+  private final long rowLength;
+  
+  /**
+   * Creates the table.
+   * @param numCities
+   * @param distances Row-major matrix with numCities * numCities entries.
+   */
+  MatrixCityTable(int numCities, DistanceStore distances) {
+    super(numCities);
+    if (distances.size() != (long)numCities * numCities) {
+      throw new IllegalArgumentException("distances has the wrong size");
+    }
+    this.distances = distances;
+    this.rowLength = numCities;
+  }
+  
+  @Override
+  public int getDistanceUnchecked(int cityA, int cityB) {
+    return distances.get(cityA * rowLength + cityB);
+  }
+  
+  @Override
+  int getDistanceWidth() {
+    return distances.width();
+  }
+}
@@ -0,0 +1,131 @@
+import java.util.stream.IntStream;
+
+/**
+ * The K nearest neighbours of every city in a table, closest first.  Stored
+ * in one flat array so looking up a candidate is a single array read.
+ * Shorter lists can be taken from longer ones without copying, see
+ * {@link #trim(int)}.
+ */
+public final class NeighbourLists {
+  private final int numCities;
+  private final int size;
+  // distance between the starts of two cities' lists, at least size
+  private final int stride;
+  private final int[] neighbours;
+  
+  /**
+   * Finds the neighbours of every city by checking the distance to every
+   * other city.  Cities are processed in parallel.
+   * @param cities
+   * @param size How many neighbours to keep for each city.
+   * @return
+   */
+  static NeighbourLists build(final CityTable cities, int size) {
+    final int numCities = cities.getNumCities();
+    final NeighbourLists result = new NeighbourLists(numCities,
+            Math.min(size, numCities - 1));
+    final int k = result.size;
+    
+    IntStream.range(0, numCities).parallel().forEach(city -> {
+      int[] best = new int[k];
+      int[] bestDistance = new int[k];
+      int count = 0;
+      for (int other = 0; other < numCities; other++) {
+        if (other == city) {
+          continue;
+        }
+        int dist = cities.getDistanceUnchecked(city, other);
+        if (count == k && dist >= bestDistance[k - 1]) {
+          continue;
+        }
+        // insertion into the sorted list of the best so far
+        int pos = count < k ? count++ : k - 1;
+        while (pos > 0 && bestDistance[pos - 1] > dist) {
+          best[pos] = best[pos - 1];
+          bestDistance[pos] = bestDistance[pos - 1];
+          pos--;
+        }
+        best[pos] = other;
+        bestDistance[pos] = dist;
+      }
+      result.set(city, best);
+    });
+    
+    return result;
+  }
+  
+  /**
+   * Creates empty lists.
+   * @param numCities
+   * @param size The number of neighbours kept for each city.
+   */
+  NeighbourLists(int numCities, int size) {
+    if (size < 0 || size >= numCities && numCities > 0) {
+      throw new IllegalArgumentException("invalid size");
+    }
+    this.numCities = numCities;
+    this.size = size;
+    this.stride = size;
+    this.neighbours = new int[numCities * size];
+  }
+  
+  /**
+   * Creates a view of the closest neighbours in other lists.
+   * @param lists
+   * @param size
+   */
+  private NeighbourLists(NeighbourLists lists, int size) {
+    this.numCities = lists.numCities;
+    this.size = size;
+    this.stride = lists.stride;
+    this.neighbours = lists.neighbours;
+  }
+  
+  /**
+   * Gets the lists cut down to the closest neighbours of each city.  The
+   * result shares these lists' storage.
+   * @param size At most {@link #size()}.
+   * @return
+   */
+  public NeighbourLists trim(int size) {
+    if (size < 0 || size > this.size) {
+      throw new IllegalArgumentException("invalid size");
+    }
+    return size == this.size ? this : new NeighbourLists(this, size);
+  }
+  
+  /**
+   *
+   * @return The number of neighbours kept for each city.
+   */
+  public int size() {
+    return size;
+  }
+  
+  /**
+   *
+   * @return
+   */
+  public int getNumCities() {
+    return numCities;
+  }
+  
+  /**
+   * Gets one of the neighbours of a city.
+   * @param city
+   * @param rank 0 for the closest neighbour.
+   * @return
+   */
+  public int get(int city, int rank) {
+    return neighbours[city * stride + rank];
+  }
+  
+  /**
+   * Sets the neighbours of a city.
+   * @param city
+   * @param closestFirst
+   */
+  void set(int city, int[] closestFirst) {
+    System.arraycopy(closestFirst, 0, neighbours, city * size, size);
+  }
+}
@@ -0,0 +1,35 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for one genetic operator applied to one solution:
+ * crossover, mutation, measuring the fitness or local search.  These run
+ * millions of times, so {@link Population} only times a sample of them,
+ * see {@link Events#OPERATOR_SAMPLE_EVERY}, and by default only those
+ * slower than a millisecond are recorded.
+ */
+@Name("tsp.Operator")
+@Label("Genetic Operator")
+@Description("One sampled crossover, mutation, fitness measurement or local "
+        + "search")
+@Category("Traveling Salesman")
+@Threshold("1 ms")
+@StackTrace(false)
+class OperatorEvent extends jdk.jfr.Event {
+  @Label("Operator")
+  String operator;
+  
+  @Label("Cities")
+  int cities;
+  
+  @Label("Generation")
+  long generation;
+  
+  @Label("Fitness")
+  @Description("Fitness of the solution after the operator")
+  int fitness;
+}
@@ -1,21 +1,61 @@
 
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
 
 /**
  * Holds the population for the genetic algorithm and allows it to evolve.
+ * All randomness comes from streams split off a single seed, so a run is
+ * reproducible for a given seed and number of workers.  The solutions are
+ * kept in two preallocated pools that swap roles every generation, so
+ * evolving does not allocate.  The members are not kept in order; parents
+ * are chosen by a {@link Selection} working on an array of their fitness.
  */
 public class Population {
-  // number of population members (solutions)
+  // default number of population members (solutions)
   private static final int SIZE = 200;  
-  private static final Random rand = new Random(System.currentTimeMillis());
-  private static final SolutionComparator comparator = new SolutionComparator();
+  // most parts a generation can be split into for breeding in parallel
+  public static final int MAX_WORKERS = SIZE;
+  // times a second parent is chosen again when it is the same as the first
+  private static final int PARENT_RETRIES = 8;
+  // nearest neighbours used by the construction heuristics
+  private static final int CONSTRUCTION_NEIGHBOURS = 10;
   
-  private ArrayList<Solution> members = new ArrayList<>(SIZE);
+  // the current generation
+  private Solution[] members;
+  // the solutions the next generation is bred into
+  private Solution[] next;
+  // the fitness of each member of the current and the next generation
+  private int[] fitness;
+  private int[] nextFitness;
+  private int bestIndex;
+  // copy of the best solution of any generation, replaced but never changed
+  private volatile Solution bestSoFar;
+  private Selection selection = new TruncationSelection(0.5);
+  // number of the best members carried over to the next generation
+  private int elitism = 0;
+  // indices of the members, the elite first after choosing them
+  private final int[] order;
   private final CityTable cities;
   private final double mutationRate;  
+  private final long seed;
+  private final SplittableRandom rand;
+  // one random stream per part of the population bred in parallel
+  private SplittableRandom[] workerRands;
+  // reused each generation to breed the parts other than the first
+  private BreedTask[] tasks;
+  // one local search per worker, or null when turned off
+  private LocalSearch[] searches;
+  private int searchNeighbours = 0;
+  private boolean searchEliteOnly;
+  // null unless metrics are being recorded
+  private EvolutionMetrics metrics;
+  // generations evolved, for flight recorder events
+  private long generation;
+  // whether this generation's operators are sampled for the flight recorder
+  private boolean timeOperators;
   
   /**
    * Creates the initial random population.
@@ -23,23 +63,226 @@ public class Population {
    * @param mutationRate 
    */
   public Population(CityTable cities, double mutationRate) {
+    this(cities, mutationRate, System.nanoTime());
+  }
+  
+  /**
+   * Creates the initial random population.
+   * @param cities
+   * @param mutationRate
+   * @param seed Seed for all the random choices made by the population.
+   */
+  public Population(CityTable cities, double mutationRate, long seed) {
+    this(cities, SIZE, mutationRate, seed);
+  }
+  
+  /**
+   * Creates the initial random population.
+   * @param cities
+   * @param size The number of members, at least 2.
+   * @param mutationRate
+   * @param seed Seed for all the random choices made by the population.
+   */
+  public Population(CityTable cities, int size, double mutationRate,
+          long seed) {
+    if (size < 2) {
+      throw new IllegalArgumentException("size must be at least 2");
+    }
     this.cities = cities;
     this.mutationRate = mutationRate;
-    for (int i = 0; i < SIZE; i++) {
+    this.seed = seed;
+    this.rand = new SplittableRandom(seed);
+    members = new Solution[size];
+    next = new Solution[size];
+    fitness = new int[size];
+    nextFitness = new int[size];
+    order = new int[size];
+    for (int i = 0; i < size; i++) {
       Solution s = new Solution(cities);
-      s.generateRandom();
+      s.generateRandom(rand);
       s.calculateFitness();
-      members.add(s);
+      members[i] = s;
+      fitness[i] = s.getFitness();
+      next[i] = new Solution(cities);
+      order[i] = i;
     }
-    members.sort(comparator);
+    bestIndex = findBest();
+    bestSoFar = new Solution(members[bestIndex]);
+    setWorkers(1);
   }
   
   /**
-   * Get the best solution in the population.
+   * Sets how many parts each generation is split into to be bred in
+   * parallel on the common {@link ForkJoinPool}.  Each part has its own
+   * random stream split from the seed, so results only depend on the seed
+   * and the number of workers, not on how the threads are scheduled.
+   * @param workers
+   */
+  public void setWorkers(int workers) {
+    if (workers <= 0 || workers > MAX_WORKERS) {
+      throw new IllegalArgumentException(
+              "workers must be in [1," + MAX_WORKERS + "]");
+    }
+    
+    workerRands = new SplittableRandom[workers];
+    tasks = new BreedTask[workers];
+    for (int i = 0; i < workers; i++) {
+      workerRands[i] = rand.split();
+      tasks[i] = new BreedTask(i);
+    }
+    createSearches();
+  }
+  
+  /**
+   * Turns on improving solutions with 2-opt and Or-opt local search, see
+   * {@link LocalSearch}.  Only works for symmetric tables.
+   * @param neighbours How many nearest neighbours of each city to try new
+   * edges to, or 0 to turn local search off.
+   * @param eliteOnly Whether to only improve the best members of each
+   * generation (the elite, or the best member without elitism), rather than
+   * every new solution.
+   */
+  public void setLocalSearch(int neighbours, boolean eliteOnly) {
+    if (neighbours < 0) {
+      throw new IllegalArgumentException("neighbours < 0");
+    }
+    if (neighbours > 0 && !cities.isSymmetric()) {
+      throw new IllegalArgumentException(
+              "local search needs a symmetric table");
+    }
+    searchNeighbours = neighbours;
+    searchEliteOnly = eliteOnly;
+    createSearches();
+  }
+  
+  /**
+   * Replaces part of the population with tours built by construction
+   * heuristics (nearest neighbour, greedy edge, space filling curve and
+   * random insertion, see {@link Construction}).  The rest stay random to
+   * keep the population diverse.  The tours are built in parallel.
+   * @param fraction The part of the population to replace.
+   */
+  public void seedHeuristics(double fraction) {
+    if (fraction < 0.0 || fraction > 1.0) {
+      throw new IllegalArgumentException(
+              "fraction must be a percentage [0.0,1.0]");
+    }
+    final int count = (int)Math.round(fraction * members.length);
+    if (count == 0) {
+      return;
+    }
+    
+    final NeighbourLists lists =
+            cities.getNearestNeighbours(CONSTRUCTION_NEIGHBOURS);
+    final SplittableRandom[] rands = new SplittableRandom[count];
+    for (int i = 0; i < count; i++) {
+      rands[i] = rand.split();
+    }
+    IntStream.range(0, count).parallel().forEach(i -> {
+      Solution s = new Solution(cities,
+              Construction.mixed(i, cities, lists, rands[i]));
+      members[i] = s;
+      fitness[i] = s.getFitness();
+    });
+    bestIndex = findBest();
+    updateBestSoFar();
+  }
+  
+  /**
+   * Sets how parents are chosen.  The default chooses uniformly from the
+   * best half of the population.
+   * @param selection
+   */
+  public void setSelection(Selection selection) {
+    if (selection == null) {
+      throw new IllegalArgumentException("selection is null");
+    }
+    this.selection = selection;
+  }
+  
+  /**
+   * Sets where metrics about each generation are recorded.
+   * @param metrics Null to stop recording, which is the default.
+   */
+  public void setMetrics(EvolutionMetrics metrics) {
+    this.metrics = metrics;
+  }
+  
+  /**
+   * Sets how many of the best members are carried over unchanged to the next
+   * generation.  The default is none.
+   * @param elitism
+   */
+  public void setElitism(int elitism) {
+    if (elitism < 0 || elitism >= members.length) {
+      throw new IllegalArgumentException(
+              "elitism must be in [0," + (members.length - 1) + "]");
+    }
+    this.elitism = elitism;
+  }
+  
+  /**
+   *
+   * @return The number of members.
+   */
+  public int size() {
+    return members.length;
+  }
+  
+  /**
+   *
+   * @return The seed the population was created with.
+   */
+  public long getSeed() {
+    return seed;
+  }
+  
+  /**
+   * Get the best solution in the population.  The solution is reused by
+   * later generations, so it must be copied to keep it past the next call to
+   * {@link #evolve(int) evolve}.
    * @return 
    */
   public Solution getBest() {
-    return members.get(0);
+    return members[bestIndex];
+  }
+  
+  /**
+   * Gets the best solution found by any generation so far, which may be
+   * better than the current best when there is no elitism.  The solution is
+   * a copy that is never changed, so unlike {@link #getBest()} it can be
+   * kept, and read from another thread while the population evolves.
+   * @return
+   */
+  public Solution getBestSoFar() {
+    return bestSoFar;
+  }
+  
+  /**
+   * Brings in a solution from outside the population, such as a migrant from
+   * another island.  A copy of it replaces the worst member if it is better.
+   * @param migrant Must be for the same cities and have a known fitness.
+   */
+  public void immigrate(Solution migrant) {
+    if (migrant.getFitness() < 0) {
+      throw new IllegalArgumentException("migrant has no fitness");
+    }
+    int worst = 0;
+    for (int i = 1; i < fitness.length; i++) {
+      if (fitness[i] > fitness[worst]) {
+        worst = i;
+      }
+    }
+    if (migrant.getFitness() >= fitness[worst]) {
+      return;
+    }
+    
+    members[worst].copyFrom(migrant);
+    fitness[worst] = migrant.getFitness();
+    if (fitness[worst] < fitness[bestIndex]) {
+      bestIndex = worst;
+    }
+    updateBestSoFar();
   }
   
   /**
@@ -49,40 +292,210 @@ public class Population {
    */
   public void evolve(int generations) {
     for (int gen = 0; gen < generations; gen++) {
-      ArrayList<Solution> newPop = new ArrayList<>(members.size());    
-      for (int i = 0; i < members.size(); i++) {        
-        // pick parents from the best 50% of the population
-        Solution parentA = members.get(rand.nextInt(members.size() / 2));
-        Solution parentB = parentA;
-        while (parentA == parentB) {
-          parentB = members.get(rand.nextInt(members.size() / 2));
-        }
+      evolveGeneration();
+    }
+  }
+  
+  /**
+   * Evolves the population until a policy says to stop, such as when a
+   * deadline passes or the best solution stops improving.
+   * @param policy
+   * @return The number of generations evolved.
+   */
+  public int evolve(TerminationPolicy policy) {
+    policy.start();
+    int generations = 0;
+    while (!policy.isDone(generations, bestSoFar.getFitness())) {
+      evolveGeneration();
+      generations++;
+    }
+    return generations;
+  }
+  
+  /**
+   * Breeds the next generation and makes it the current one.
+   */
+  private void evolveGeneration() {
+    final int workers = workerRands.length;
+    // events are only created while recording, so evolving never allocates
+    GenerationEvent event = Events.generationsEnabled()
+            ? new GenerationEvent() : null;
+    if (event != null) {
+      event.begin();
+    }
+    generation++;
+    timeOperators = Events.operatorsEnabled();
+    
+    OperatorEvent selecting = Events.startOperator(timeOperators);
+    selection.prepare(fitness);
+    Events.finishOperator(selecting, "selection", cities.getNumCities(),
+            generation, -1);
+    // hand out all but the first part to the pool and breed that one here
+    for (int w = 1; w < workers; w++) {
+      tasks[w].reinitialize();
+      ForkJoinPool.commonPool().execute(tasks[w]);
+    }
+    breed(0);
+    for (int w = 1; w < workers; w++) {
+      tasks[w].join();
+    }
+    
+    // carry the elite over by trading them for the unused solutions in the
+    // first slots, so nothing is copied
+    if (elitism > 0) {
+      TruncationSelection.selectSmallest(fitness, order, elitism);
+      for (int i = 0; i < elitism; i++) {
+        Solution temp = next[i];
+        next[i] = members[order[i]];
+        members[order[i]] = temp;
+        nextFitness[i] = fitness[order[i]];
+      }
+    }
         
-        Solution s = new Solution(cities);
-        s.cross(parentA, parentB);
-        if (rand.nextDouble() < mutationRate) {
-          s.mutate();
-        }
-        s.calculateFitness();
-        newPop.add(s);
+    Solution[] temp = members;
+    members = next;
+    next = temp;
+    int[] tempFitness = fitness;
+    fitness = nextFitness;
+    nextFitness = tempFitness;
+    if (searches != null && searchEliteOnly) {
+      improveElite();
+    }
+    bestIndex = findBest();
+    updateBestSoFar();
+    if (metrics != null) {
+      metrics.generationDone(cities, members, fitness,
+              members.length - elitism);
+    }
+    
+    if (event != null) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.cities = cities.getNumCities();
+        event.generation = generation;
+        event.populationSize = members.length;
+        event.bestFitness = fitness[bestIndex];
+        event.commit();
       }
-      newPop.sort(comparator);
-      members = newPop;
+    }
+  }
+      
+  /**
+   * Publishes a copy of the current best solution if it beats every earlier
+   * one.  Only allocates when the best improves.
+   */
+  private void updateBestSoFar() {
+    if (fitness[bestIndex] < bestSoFar.getFitness()) {
+      bestSoFar = new Solution(members[bestIndex]);
     }
   }
   
-  private static class SolutionComparator implements Comparator<Solution> {
-    @Override
-    public int compare(Solution o1, Solution o2) {
-      if (o1.getFitness() < o2.getFitness()) {
-        return -1;
+  /**
+   * Breeds one worker's share of the next generation into the spare pool.
+   * @param worker
+   */
+  private void breed(int worker) {
+    final SplittableRandom random = workerRands[worker];
+    // the first slots are left for the elite
+    final int bred = members.length - elitism;
+    final int start = elitism + worker * bred / workerRands.length;
+    final int end = elitism + (worker + 1) * bred / workerRands.length;
+    final int n = cities.getNumCities();
+    
+    for (int i = start; i < end; i++) {
+      boolean timed = timeOperators
+              && (i & (Events.OPERATOR_SAMPLE_EVERY - 1)) == 0;
+      int a = selection.select(fitness, random);
+      int b = selection.select(fitness, random);
+      // strong selection can keep choosing the same member, so give up
+      // after a few tries rather than loop
+      for (int tries = 0; a == b && tries < PARENT_RETRIES; tries++) {
+        b = selection.select(fitness, random);
+      }
+      Solution parentA = members[a];
+      Solution parentB = members[b];
+      
+      Solution s = next[i];
+      OperatorEvent event = Events.startOperator(timed);
+      s.cross(parentA, parentB, random);
+      Events.finishOperator(event, "cross", n, generation, s.getFitness());
+      if (random.nextDouble() < mutationRate) {
+        event = Events.startOperator(timed);
+        s.mutate(random);
+        Events.finishOperator(event, "mutate", n, generation, s.getFitness());
       }
-      else if (o1.getFitness() == o2.getFitness()) {
-        return 0;
+      // cross and mutate keep the fitness up to date when the parents have
+      // one, so it only needs measuring from scratch otherwise
+      if (s.getFitness() < 0) {
+        event = Events.startOperator(timed);
+        s.calculateFitness();
+        Events.finishOperator(event, "calculateFitness", n, generation,
+                s.getFitness());
+      }
+      if (searches != null && !searchEliteOnly) {
+        event = Events.startOperator(timed);
+        searches[worker].improve(s);
+        Events.finishOperator(event, "localSearch", n, generation,
+                s.getFitness());
       }
-      else {
-        return 1;
+      nextFitness[i] = s.getFitness();
+    }
+  }
+  
+  /**
+   * Runs local search on the best members of the current generation.
+   */
+  private void improveElite() {
+    int count = Math.max(1, elitism);
+    TruncationSelection.selectSmallest(fitness, order, count);
+    for (int i = 0; i < count; i++) {
+      Solution s = members[order[i]];
+      OperatorEvent event = Events.startOperator(timeOperators);
+      searches[0].improve(s);
+      Events.finishOperator(event, "localSearch", cities.getNumCities(),
+              generation, s.getFitness());
+      fitness[order[i]] = s.getFitness();
+    }
+  }
+  
+  private void createSearches() {
+    if (searchNeighbours == 0) {
+      searches = null;
+      return;
+    }
+    NeighbourLists lists = cities.getNearestNeighbours(searchNeighbours);
+    searches = new LocalSearch[workerRands.length];
+    for (int i = 0; i < searches.length; i++) {
+      searches[i] = new LocalSearch(cities, lists);
+    }
+  }
+  
+  private int findBest() {
+    int best = 0;
+    for (int i = 1; i < fitness.length; i++) {
+      if (fitness[i] < fitness[best]) {
+        best = i;
       }
     }
+    return best;
+  }
+  
+  /**
+   * Breeds one worker's share of a generation on the pool.  Created once per
+   * worker and reinitialized each generation.
+   */
+  private class BreedTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    private final int worker;
+    
+    BreedTask(int worker) {
+      this.worker = worker;
+    }
+    
+    @Override
+    protected void compute() {
+      breed(worker);
+    }
   }
 }
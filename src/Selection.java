@@ -0,0 +1,25 @@
+import java.util.SplittableRandom;
+
+/**
+ * Chooses parents from the current generation of a {@link Population}.
+ * Strategies work on a primitive array holding the fitness of each member,
+ * so the population never needs to be sorted.
+ */
+public interface Selection {
+  
+  /**
+   * Called once per generation, before any parents are chosen.
+   * @param fitness The fitness of each member of the generation, which must
+   * not be changed.
+   */
+  void prepare(int[] fitness);
+  
+  /**
+   * Chooses a parent.  Called from several threads at once when breeding in
+   * parallel, each with its own random stream.
+   * @param fitness The same array given to {@link #prepare(int[]) prepare}.
+   * @param rand
+   * @return The index of the chosen member.
+   */
+  int select(int[] fitness, SplittableRandom rand);
+}
@@ -0,0 +1,280 @@
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Solves with simulated annealing.  Each step proposes a 2-opt, swap or
+ * insertion move between a city and one of its nearest neighbours, works out
+ * the change in length from the few edges involved, and makes the move if
+ * it is shorter, or longer with a chance that falls as the temperature
+ * drops.  Several independent chains run in parallel from nearest neighbour
+ * tours, and the best tour any of them finds is kept.  2-opt moves reverse
+ * part of the tour, so they are only used for symmetric tables.
+ */
+public class SimulatedAnnealingSolver implements Solver {
+  // moves sampled to choose the initial temperature
+  private static final int SAMPLE_MOVES = 1000;
+  // chance of accepting an average uphill move at the start
+  private static final double INITIAL_ACCEPTANCE = 0.1;
+  // steps between looking at the clock, a power of two
+  private static final int CHECK_INTERVAL = 1024;
+  
+  private final long timeLimitNanos;
+  private final long seed;
+  private int chains = Runtime.getRuntime().availableProcessors();
+  private int neighbours = 10;
+  private CoolingSchedule schedule = new GeometricCooling(0.001);
+  
+  /**
+   * Creates the solver.
+   * @param timeLimitMillis How long each chain anneals for.
+   * @param seed
+   */
+  public SimulatedAnnealingSolver(long timeLimitMillis, long seed) {
+    if (timeLimitMillis < 0) {
+      throw new IllegalArgumentException("timeLimitMillis < 0");
+    }
+    this.timeLimitNanos = timeLimitMillis * 1000000;
+    this.seed = seed;
+  }
+  
+  /**
+   * Sets how many independent chains are run in parallel.  The default is
+   * the number of processors; chains beyond that wait for a free processor
+   * and get less of the time limit.
+   * @param chains
+   */
+  public void setChains(int chains) {
+    if (chains <= 0) {
+      throw new IllegalArgumentException("chains must be > 0");
+    }
+    this.chains = chains;
+  }
+  
+  /**
+   * Sets how many nearest neighbours of each city moves are made towards.
+   * The default is 10.
+   * @param neighbours
+   */
+  public void setNeighbours(int neighbours) {
+    if (neighbours <= 0) {
+      throw new IllegalArgumentException("neighbours must be > 0");
+    }
+    this.neighbours = neighbours;
+  }
+  
+  /**
+   * Sets how the temperature falls.  The default is geometric down to a
+   * thousandth of the initial temperature.
+   * @param schedule
+   */
+  public void setCoolingSchedule(CoolingSchedule schedule) {
+    if (schedule == null) {
+      throw new IllegalArgumentException("schedule is null");
+    }
+    this.schedule = schedule;
+  }
+  
+  /**
+   *
+   * @return
+   */
+  public long getSeed() {
+    return seed;
+  }
+  
+  @Override
+  public Solution solve(CityTable cities) {
+    // too small for the moves, but small enough to solve exactly
+    if (cities.getNumCities() < 8) {
+      return new HeldKarpSolver().solve(cities);
+    }
+    final long deadline = System.nanoTime() + timeLimitNanos;
+    final NeighbourLists lists = cities.getNearestNeighbours(neighbours);
+    final SplittableRandom[] rands = new SplittableRandom[chains];
+    rands[0] = new SplittableRandom(seed);
+    for (int i = 1; i < chains; i++) {
+      rands[i] = rands[0].split();
+    }
+    
+    return IntStream.range(0, chains).parallel()
+            .mapToObj(i -> new Chain(cities, lists, rands[i]).run(deadline))
+            .reduce((a, b) -> b.getFitness() < a.getFitness() ? b : a)
+            .get();
+  }
+  
+  /**
+   * One annealing run.
+   */
+  private final class Chain {
+    private final CityTable cities;
+    private final NeighbourLists lists;
+    private final SplittableRandom rand;
+    private final boolean symmetric;
+    private final Solution current;
+    // copied from current only when a move is about to leave a better tour
+    // than it holds, which is rare compared with the moves
+    private final Solution best;
+    private int bestFitness;
+    // whether current is the best tour and best has not been given it
+    private boolean bestPending = false;
+    
+    Chain(CityTable cities, NeighbourLists lists, SplittableRandom rand) {
+      this.cities = cities;
+      this.lists = lists;
+      this.rand = rand;
+      symmetric = cities.isSymmetric();
+      current = new Solution(cities, Construction.nearestNeighbour(cities,
+              lists, rand.nextInt(cities.getNumCities())));
+      best = new Solution(current);
+      bestFitness = best.getFitness();
+    }
+    
+    Solution run(long deadline) {
+      SolverPhaseEvent phase = Events.startPhase("simulated annealing",
+              "anneal", cities.getNumCities());
+      final long start = System.nanoTime();
+      final double initial = initialTemperature();
+      double temperature = initial;
+      
+      for (long step = 1; ; step++) {
+        propose(temperature);
+        if ((step & (CHECK_INTERVAL - 1)) == 0) {
+          long now = System.nanoTime();
+          if (now >= deadline) {
+            break;
+          }
+          double progress = (double)(now - start) / (deadline - start);
+          temperature = schedule.temperature(initial, progress);
+        }
+      }
+      if (bestPending) {
+        best.copyFrom(current);
+      }
+      Events.finishPhase(phase, best.getFitness());
+      return best;
+    }
+    
+    /**
+     * Chooses a temperature at which an average uphill move from the start
+     * tour is accepted with a small chance.
+     */
+    private double initialTemperature() {
+      long total = 0;
+      int uphill = 0;
+      for (int i = 0; i < SAMPLE_MOVES; i++) {
+        int a = rand.nextInt(cities.getNumCities());
+        int b = lists.get(a, rand.nextInt(lists.size()));
+        int delta = insertionDelta(a, b);
+        if (delta > 0 && delta != Integer.MAX_VALUE) {
+          total += delta;
+          uphill++;
+        }
+      }
+      double average = uphill == 0 ? 1.0 : (double)total / uphill;
+      return -average / Math.log(INITIAL_ACCEPTANCE);
+    }
+    
+    /**
+     * Picks a random move, and makes it if it is accepted at a temperature.
+     */
+    private void propose(double temperature) {
+      int a = rand.nextInt(cities.getNumCities());
+      int b = lists.get(a, rand.nextInt(lists.size()));
+      int kind = rand.nextInt(symmetric ? 3 : 2);
+      int delta;
+      switch (kind) {
+        case 0:
+          delta = insertionDelta(a, b);
+          break;
+        case 1:
+          delta = swapDelta(a, b);
+          break;
+        default:
+          delta = twoOptDelta(a, b);
+          break;
+      }
+      if (delta == Integer.MAX_VALUE || delta > 0
+              && rand.nextDouble() >= Math.exp(-delta / temperature)) {
+        return;
+      }
+      if (delta > 0 && bestPending) {
+        best.copyFrom(current);
+        bestPending = false;
+      }
+      
+      switch (kind) {
+        case 0:
+          current.moveCity(a, current.prev(b));
+          break;
+        case 1:
+          current.swapCities(a, b);
+          break;
+        default:
+          current.twoOptMove(a, current.next(a), b, current.next(b));
+          break;
+      }
+      current.addToFitness(delta);
+      if (current.getFitness() < bestFitness) {
+        bestFitness = current.getFitness();
+        bestPending = true;
+      }
+    }
+    
+    /**
+     * Gets the change in length from moving city a to just before city b,
+     * which adds the edge (a,b), or Integer.MAX_VALUE if that changes
+     * nothing.
+     */
+    private int insertionDelta(int a, int b) {
+      int prev = current.prev(a);
+      int next = current.next(a);
+      if (b == next) {
+        return Integer.MAX_VALUE;
+      }
+      int before = current.prev(b);
+      return dist(prev, next) + dist(before, a) + dist(a, b)
+              - dist(prev, a) - dist(a, next) - dist(before, b);
+    }
+    
+    /**
+     * Gets the change in length from swapping cities a and b.
+     */
+    private int swapDelta(int a, int b) {
+      int prevA = current.prev(a);
+      int nextA = current.next(a);
+      int prevB = current.prev(b);
+      int nextB = current.next(b);
+      if (nextA == b) {
+        // prevA a b nextB becomes prevA b a nextB
+        return dist(prevA, b) + dist(b, a) + dist(a, nextB)
+                - dist(prevA, a) - dist(a, b) - dist(b, nextB);
+      }
+      if (nextB == a) {
+        return dist(prevB, a) + dist(a, b) + dist(b, nextA)
+                - dist(prevB, b) - dist(b, a) - dist(a, nextA);
+      }
+      return dist(prevA, b) + dist(b, nextA) + dist(prevB, a) + dist(a, nextB)
+              - dist(prevA, a) - dist(a, nextA) - dist(prevB, b)
+              - dist(b, nextB);
+    }
+    
+    /**
+     * Gets the change in length from replacing the edges leaving cities a
+     * and b with (a,b) and the edge between their successors, or
+     * Integer.MAX_VALUE if that changes nothing.
+     */
+    private int twoOptDelta(int a, int b) {
+      int nextA = current.next(a);
+      int nextB = current.next(b);
+      if (nextA == b || nextB == a) {
+        return Integer.MAX_VALUE;
+      }
+      return dist(a, b) + dist(nextA, nextB) - dist(a, nextA)
+              - dist(b, nextB);
+    }
+    
+    private int dist(int a, int b) {
+      return cities.getDistanceUnchecked(a, b);
+    }
+  }
+}
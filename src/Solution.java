@@ -1,18 +1,25 @@
 import java.util.Arrays;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * Represents one solution (aka population member) for the traveling 
- * salesman problem.
+ * salesman problem.  The crossover and mutation operators keep the fitness
+ * up to date by adjusting it for the edges they change, rather than
+ * measuring the whole path again.  Running with -Dtsp.verifyFitness=true
+ * checks every such update against a full recalculation.
  */
 public class Solution {
-  private static final Random rand = new Random(System.currentTimeMillis());
+  private static final boolean VERIFY_FITNESS =
+          Boolean.getBoolean("tsp.verifyFitness");
   
   private final CityTable cities;
   // this is the path that the salesman follows.  it's always implied that he
   // goes back to the first city after the last city.
-  private final Integer[] path;
-  // the "score" of this solution
+  private final int[] path;
+  // the index of each city in path, always kept in sync so that
+  // path[position[city]] == city
+  private final int[] position;
+  // the "score" of this solution, or -1 when it is not known
   private int fitness = -1;  
   
   /**
@@ -25,10 +32,42 @@ public class Solution {
       throw new IllegalArgumentException("cities is null");
     }
     this.cities = cities;
-    path = new Integer[cities.getNumCities()];
-    for (int i = 0; i < path.length; i++) {
-      path[i] = -1;
+    path = new int[cities.getNumCities()];
+    position = new int[path.length];
+    Arrays.fill(path, -1);
+    Arrays.fill(position, -1);
+  }
+  
+  /**
+   * Creates the solution that visits the cities in the order given.
+   * @param cities
+   * @param tour Every city exactly once.
+   */
+  public Solution(CityTable cities, int[] tour) {
+    this(cities);
+    setTour(tour);
+  }
+  
+  /**
+   * Creates a copy of another solution, including its fitness.
+   * @param other
+   */
+  public Solution(Solution other) {
+    this(other.cities);
+    copyFrom(other);
+  }
+  
+  /**
+   * Makes this solution the same as another one for the same cities.
+   * @param other
+   */
+  public void copyFrom(Solution other) {
+    if (other.cities != cities) {
+      throw new IllegalArgumentException("other is for different cities");
     }
+    System.arraycopy(other.path, 0, path, 0, path.length);
+    System.arraycopy(other.position, 0, position, 0, position.length);
+    fitness = other.fitness;
   }
   
   /**
@@ -39,13 +78,21 @@ public class Solution {
     int result = 0;
     int lastCity = path[0];
     for (int i = 1; i < path.length; i++) {
-      result += cities.getDistance(lastCity, path[i]);
+      result += cities.getDistanceUnchecked(lastCity, path[i]);
       lastCity = path[i];
     }
-    result += cities.getDistance(lastCity, path[0]);
+    result += cities.getDistanceUnchecked(lastCity, path[0]);
     return result;
   }
   
+  /**
+   * Gets the cities in the order they are visited.
+   * @return A copy of the tour.
+   */
+  public int[] getTour() {
+    return path.clone();
+  }
+  
   /**
    * Get the fitness of the solution.
    * @return 
@@ -54,10 +101,32 @@ public class Solution {
     return fitness;
   }
   
+  /**
+   * Makes this solution visit the cities in the order given, and measures
+   * it.
+   * @param tour Every city exactly once.
+   */
+  public void setTour(int[] tour) {
+    if (tour.length != path.length) {
+      throw new IllegalArgumentException("tour has the wrong number of cities");
+    }
+    Arrays.fill(position, -1);
+    for (int i = 0; i < tour.length; i++) {
+      int city = tour[i];
+      if (city < 0 || city >= path.length || position[city] >= 0) {
+        throw new IllegalArgumentException("tour is not a permutation");
+      }
+      path[i] = city;
+      position[city] = i;
+    }
+    calculateFitness();
+  }
+  
   /**
    * Populate this solution with a new, randomly generated solution.
+   * @param rand
    */
-  public void generateRandom() {
+  public void generateRandom(SplittableRandom rand) {
     // fill with cities in order
     for (int i = 0; i < path.length; i++) {
       path[i] = i;
@@ -70,10 +139,15 @@ public class Solution {
       path[idx] = path[i];
       path[i] = temp;
     }
+    
+    for (int i = 0; i < path.length; i++) {
+      position[path[i]] = i;
+    }
+    fitness = -1;
   }
   
   /**
-   * Score the fitness of this solution.
+   * Score the fitness of this solution by measuring the whole path.
    */
   public void calculateFitness() {
     fitness = getDistance();
@@ -81,48 +155,183 @@ public class Solution {
   
   /**
    * Replace this solution by crossing two parents to create a new solution.
+   * If parentA's fitness is known, the new fitness is worked out from it by
+   * only measuring the edges around the crossed section.
    * @param parentA
    * @param parentB 
+   * @param rand
    */
-  public void cross(Solution parentA, Solution parentB) {
+  public void cross(Solution parentA, Solution parentB,
+          SplittableRandom rand) {
     if (parentA == null || parentB == null) {
       throw new IllegalArgumentException("Parents cannot be null");
     }
     
-    System.arraycopy(parentA.path, 0, path, 0, path.length);
     int startCross = rand.nextInt(path.length / 2);
     int endCross = startCross + rand.nextInt(path.length / 2);
+    cross(parentA, parentB, startCross, endCross);
+  }
+  
+  /**
+   * Replaces this solution by parentA with the cities in a section of the
+   * path reordered as they are in parentB.
+   * @param parentA
+   * @param parentB
+   * @param startCross The first index of the section.
+   * @param endCross The index after the section, at most the number of
+   * cities.
+   */
+  void cross(Solution parentA, Solution parentB, int startCross,
+          int endCross) {
+    System.arraycopy(parentA.path, 0, path, 0, path.length);
+    System.arraycopy(parentA.position, 0, position, 0, position.length);
     
-    Arrays.sort(path, startCross, endCross, (Integer o1, Integer o2) -> {
-      int idx1 = parentB.indexOfCity(o1);
-      int idx2 = parentB.indexOfCity(o2);
-      
-      if (idx1 < idx2) {
-        return -1;
-      }
-      else if (idx1 == idx2) {
-        return 0;
-      }
-      else {
-        return 1;
+    // reorder the cities in [startCross, endCross) into the order they have
+    // in parentB, by walking parentB's path once and picking them out
+    int next = startCross;
+    for (int i = 0; i < parentB.path.length && next < endCross; i++) {
+      int city = parentB.path[i];
+      int idx = parentA.indexOfCity(city);
+      if (idx >= startCross && idx < endCross) {
+        path[next] = city;
+        position[city] = next;
+        next++;
       }
-    });
+    }
+    
+    // only the edges from startCross - 1 to endCross - 1 can have changed
+    fitness = parentA.fitness;
+    if (fitness < 0 || startCross == endCross) {
+      return;
+    }
+    if (endCross - startCross + 1 >= path.length) {
+      calculateFitness();
+      return;
+    }
+    for (int i = startCross - 1; i < endCross; i++) {
+      fitness += edgeLength(i) - parentA.edgeLength(i);
+    }
+    verifyFitness();
   }
   
   /**
-   * Mutate this solution (pick something random and change it).
+   * Mutate this solution (pick something random and change it).  A known
+   * fitness is adjusted for the (at most four) edges that change.
+   * @param rand
    */
-  public void mutate() {
+  public void mutate(SplittableRandom rand) {
     // select two random cities and swap them
     int first = rand.nextInt(path.length);
     int second = first;
     while (first == second) {
       second = rand.nextInt(path.length);
     }
-    
+    mutate(first, second);
+  }
+  
+  /**
+   * Swaps the cities at two indices of the path.
+   * @param first
+   * @param second Must not be first.
+   */
+  void mutate(int first, int second) {
+    int before = fitness < 0 ? 0 : swapEdgesLength(first, second);
     int temp = path[first];
     path[first] = path[second];
     path[second] = temp;
+    position[path[first]] = first;
+    position[path[second]] = second;
+    
+    if (fitness >= 0) {
+      fitness += swapEdgesLength(first, second) - before;
+      verifyFitness();
+    }
+  }
+  
+  /**
+   * Gets the city visited after a city.
+   * @param city
+   * @return
+   */
+  int next(int city) {
+    int index = position[city] + 1;
+    return path[index == path.length ? 0 : index];
+  }
+  
+  /**
+   * Gets the city visited before a city.
+   * @param city
+   * @return
+   */
+  int prev(int city) {
+    int index = position[city];
+    return path[index == 0 ? path.length - 1 : index - 1];
+  }
+  
+  /**
+   * Replaces the edges (t1,t2) and (t3,t4) with (t1,t3) and (t2,t4) by
+   * reversing part of the path.  Either t2 follows t1 and t4 follows t3, or
+   * t2 comes before t1 and t4 before t3.  The fitness is not changed, see
+   * {@link #addToFitness(int)}.
+   * @param t1
+   * @param t2
+   * @param t3
+   * @param t4
+   */
+  void twoOptMove(int t1, int t2, int t3, int t4) {
+    if (next(t1) == t2) {
+      reverse(t2, t3);
+    }
+    else {
+      reverse(t1, t4);
+    }
+  }
+  
+  /**
+   * Swaps the places of two cities in the path.  The fitness is not
+   * changed, see {@link #addToFitness(int)}.
+   * @param cityA
+   * @param cityB
+   */
+  void swapCities(int cityA, int cityB) {
+    int i = position[cityA];
+    int j = position[cityB];
+    path[i] = cityB;
+    position[cityB] = i;
+    path[j] = cityA;
+    position[cityA] = j;
+  }
+  
+  /**
+   * Moves a city to just after another one, shifting the cities in between
+   * along by one.  The fitness is not changed, see
+   * {@link #addToFitness(int)}.
+   * @param city
+   * @param after Must not be city.
+   */
+  void moveCity(int city, int after) {
+    int from = position[city];
+    int to = position[after];
+    if (from < to) {
+      System.arraycopy(path, from + 1, path, from, to - from);
+    }
+    else {
+      to++;
+      System.arraycopy(path, to, path, to + 1, from - to);
+    }
+    path[to] = city;
+    for (int i = Math.min(from, to); i <= Math.max(from, to); i++) {
+      position[path[i]] = i;
+    }
+  }
+  
+  /**
+   * Adjusts a known fitness after the path has been changed directly.
+   * @param delta
+   */
+  void addToFitness(int delta) {
+    fitness += delta;
+    verifyFitness();
   }
   
   @Override
@@ -135,17 +344,86 @@ public class Solution {
     return sb.toString();
   }
   
+  /**
+   * Gets the length of the edge leaving an index of the path.
+   * @param index May be from -1 to path.length, and wraps around.
+   * @return
+   */
+  private int edgeLength(int index) {
+    int from = index < 0 ? index + path.length : index;
+    int to = from + 1 == path.length ? 0 : from + 1;
+    return cities.getDistanceUnchecked(path[from], path[to]);
+  }
+  
+  /**
+   * Reverses the part of the path from one city forwards to another.  When
+   * that is more than half the path the rest is reversed instead, which
+   * gives the same tour travelled the other way.
+   * @param from
+   * @param to
+   */
+  private void reverse(int from, int to) {
+    final int n = path.length;
+    int i = position[from];
+    int j = position[to];
+    int length = (j - i + n) % n + 1;
+    if (2 * length > n) {
+      int start = j + 1 == n ? 0 : j + 1;
+      j = i == 0 ? n - 1 : i - 1;
+      i = start;
+      length = n - length;
+    }
+    
+    for (int k = 0; k < length / 2; k++) {
+      int cityI = path[i];
+      int cityJ = path[j];
+      path[i] = cityJ;
+      position[cityJ] = i;
+      path[j] = cityI;
+      position[cityI] = j;
+      i = i + 1 == n ? 0 : i + 1;
+      j = j == 0 ? n - 1 : j - 1;
+    }
+  }
+  
+  /**
+   * Gets the total length of the edges touching two indices of the path.
+   * Edges touching both indices are only counted once.
+   * @param first
+   * @param second Must not be first.
+   * @return
+   */
+  private int swapEdgesLength(int first, int second) {
+    // the edges leaving first - 1, first, second - 1 and second; when the
+    // indices are next to each other two of those are the same edge
+    int beforeFirst = first == 0 ? path.length - 1 : first - 1;
+    int beforeSecond = second == 0 ? path.length - 1 : second - 1;
+    int result = edgeLength(beforeFirst) + edgeLength(first);
+    if (beforeSecond != first) {
+      result += edgeLength(beforeSecond);
+    }
+    if (second != beforeFirst) {
+      result += edgeLength(second);
+    }
+    return result;
+  }
+  
+  /**
+   * Checks the fitness kept up to date by the operators against a full
+   * measurement, when verification is turned on.
+   */
+  private void verifyFitness() {
+    if (VERIFY_FITNESS && fitness != getDistance()) {
+      throw new IllegalStateException("Fitness " + fitness
+              + " does not match distance " + getDistance());
+    }
+  }
+  
   private int indexOfCity(int city) {
     if (city < 0 || city >= cities.getNumCities()) {
       throw new IllegalArgumentException("invalid city");
     }
     
-    for (int i = 0; i < path.length; i++) {
-      if (path[i] == city) {
-        return i;
-      }
-    }
-    
-    return -1;
+    return position[city];
   }
 }
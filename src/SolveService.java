@@ -0,0 +1,597 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import util.Timer;
+
+/**
+ * Solves tables sent over HTTP.  Tables in the text format are uploaded to
+ * /tables, or sent with a request to /solve, and kept in a
+ * {@link TableCache} under the SHA-256 hash of their text so later requests
+ * can refer to them by the hash.  Solves wait in a queue ordered by
+ * priority for one of a fixed number of solving threads.  Every request
+ * that reads a table takes a slot before reading it, so reading and parsing
+ * are bounded along with solving, and is turned away with 503 when every
+ * slot is taken.  /status reports the queue and the cache.
+ */
+final class SolveService {
+  // seconds a client turned away is told to wait
+  private static final int RETRY_AFTER = 1;
+  // seconds given to requests in progress when stopping
+  private static final int STOP_DELAY = 1;
+  
+  private final int jobs;
+  private final int queueLimit;
+  private final TableCache cache;
+  private long maxTimeMillis = 60000;
+  private int maxBodyBytes = 64 << 20;
+  private CityTable.Symmetry symmetry = CityTable.Symmetry.DETECT;
+  // held from reading a request's body until its solve finishes
+  private final Semaphore slots;
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicLong sequence = new AtomicLong();
+  private HttpServer server;
+  private ExecutorService http;
+  private ThreadPoolExecutor solvers;
+  
+  /**
+   * Creates the service.
+   * @param jobs How many tables are solved at once.
+   * @param queueLimit How many requests can be reading, parsing or waiting
+   * for a thread on top of those solving before more are turned away.
+   * @param cacheBytes The most bytes of distances kept in the table cache.
+   */
+  SolveService(int jobs, int queueLimit, long cacheBytes) {
+    if (jobs <= 0) {
+      throw new IllegalArgumentException("jobs <= 0");
+    }
+    if (queueLimit < 0) {
+      throw new IllegalArgumentException("queueLimit < 0");
+    }
+    this.jobs = jobs;
+    this.queueLimit = queueLimit;
+    this.cache = new TableCache(cacheBytes);
+    this.slots = new Semaphore(jobs + queueLimit);
+  }
+  
+  /**
+   * Sets the longest time limit a request can ask for.
+   * @param millis
+   */
+  void setMaxTimeMillis(long millis) {
+    if (millis <= 0) {
+      throw new IllegalArgumentException("millis <= 0");
+    }
+    maxTimeMillis = millis;
+  }
+  
+  /**
+   * Sets the largest table text accepted.
+   * @param bytes
+   */
+  void setMaxBodyBytes(int bytes) {
+    if (bytes <= 0) {
+      throw new IllegalArgumentException("bytes <= 0");
+    }
+    maxBodyBytes = bytes;
+  }
+  
+  /**
+   * Sets how uploaded tables are stored, see {@link CityTable.Symmetry}.
+   * Declaring them symmetric skips the check for symmetry.
+   * @param symmetry
+   */
+  void setSymmetry(CityTable.Symmetry symmetry) {
+    this.symmetry = symmetry;
+  }
+  
+  /**
+   * Starts serving.
+   * @param address
+   * @throws IOException If the address cannot be bound.
+   */
+  void start(InetSocketAddress address) throws IOException {
+    // requests only wait on their solve, which the queue limit bounds
+    http = Executors.newCachedThreadPool(daemon("service-http"));
+    // execute rather than submit, so the queue holds the comparable jobs
+    solvers = new ThreadPoolExecutor(jobs, jobs, 0, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>(), daemon("service-solve"));
+    server = HttpServer.create(address, 0);
+    server.createContext("/tables", this::handleTables);
+    server.createContext("/solve", this::handleSolve);
+    server.createContext("/status", this::handleStatus);
+    server.setExecutor(http);
+    server.start();
+  }
+  
+  /**
+   * Stops serving.  The solves still queued are abandoned and their requests
+   * answered with 503; those already running are interrupted.
+   */
+  void stop() {
+    // before the server waits for the exchanges, so none waits on a job
+    // that will never run
+    for (Runnable queued : solvers.shutdownNow()) {
+      ((Job)queued).result.cancel(false);
+      slots.release();
+    }
+    server.stop(STOP_DELAY);
+    http.shutdownNow();
+  }
+  
+  /**
+   *
+   * @return The port being served on.
+   */
+  int getPort() {
+    return server.getAddress().getPort();
+  }
+  
+  /**
+   * Handles POST /tables, which parses and caches a table.
+   */
+  private void handleTables(HttpExchange exchange) throws IOException {
+    boolean slot = false;
+    try {
+      if (!exchange.getRequestMethod().equals("POST")) {
+        send(exchange, 405, Json.object("error", "Use POST"));
+        return;
+      }
+      slot = takeSlot(exchange);
+      if (!slot) {
+        return;
+      }
+      byte[] body = readBody(exchange);
+      if (body == null) {
+        return;
+      }
+      String key = hash(body);
+      CityTable cities = parse(exchange, key, body);
+      if (cities == null) {
+        return;
+      }
+      StringBuilder sb = new StringBuilder("{\"table\":");
+      Json.quote(sb, key);
+      sb.append(",\"cities\":").append(cities.getNumCities()).append('}');
+      send(exchange, 200, sb.toString());
+    }
+    finally {
+      if (slot) {
+        slots.release();
+      }
+      exchange.close();
+    }
+  }
+  
+  /**
+   * Handles POST /solve, which solves a table sent as the body or named by
+   * the table parameter.  The other parameters are solver, time (seconds),
+   * priority (higher first), seed, generations and iterations.
+   */
+  private void handleSolve(HttpExchange exchange) throws IOException {
+    // the slot passes to the job once it is queued
+    boolean slot = false;
+    try {
+      if (!exchange.getRequestMethod().equals("POST")) {
+        send(exchange, 405, Json.object("error", "Use POST"));
+        return;
+      }
+      slot = takeSlot(exchange);
+      if (!slot) {
+        return;
+      }
+      Map<String, String> params = parseQuery(
+              exchange.getRequestURI().getRawQuery());
+      byte[] body = readBody(exchange);
+      if (body == null) {
+        return;
+      }
+      
+      String key = params.get("table");
+      CityTable cities;
+      if (body.length > 0) {
+        key = hash(body);
+        cities = parse(exchange, key, body);
+        if (cities == null) {
+          return;
+        }
+      }
+      else if (key == null) {
+        send(exchange, 400, Json.object("error",
+                "Send a table or name one with the table parameter"));
+        return;
+      }
+      else {
+        cities = cache.get(key);
+        if (cities == null) {
+          send(exchange, 404, Json.object("error", "Unknown table " + key
+                  + ", it may have been evicted"));
+          return;
+        }
+      }
+      
+      Job job;
+      try {
+        job = createJob(params, cities);
+      }
+      catch (NumberFormatException ex) {
+        send(exchange, 400, Json.object("error",
+                "Invalid number: " + ex.getMessage()));
+        return;
+      }
+      catch (IllegalArgumentException ex) {
+        send(exchange, 400, Json.object("error", ex.getMessage()));
+        return;
+      }
+      
+      try {
+        solvers.execute(job);
+      }
+      catch (RejectedExecutionException ex) {
+        send(exchange, 503, Json.object("error", "Stopping"));
+        return;
+      }
+      slot = false;
+      
+      Solution best;
+      try {
+        best = job.result.get();
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        send(exchange, 503, Json.object("error", "Stopping"));
+        return;
+      }
+      catch (CancellationException ex) {
+        send(exchange, 503, Json.object("error", "Stopping"));
+        return;
+      }
+      catch (ExecutionException ex) {
+        send(exchange, 500, Json.object("error", ex.getCause().toString()));
+        return;
+      }
+      StringBuilder sb = new StringBuilder("{\"table\":");
+      Json.quote(sb, key);
+      Json.appendSolution(sb, job.solverName, best, job.seed, job.millis,
+              true);
+      send(exchange, 200, sb.append('}').toString());
+    }
+    finally {
+      if (slot) {
+        slots.release();
+      }
+      exchange.close();
+    }
+  }
+  
+  /**
+   * Handles GET /status.
+   */
+  private void handleStatus(HttpExchange exchange) throws IOException {
+    try {
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\"running\":").append(running.get());
+      sb.append(",\"queued\":").append(solvers.getQueue().size());
+      sb.append(",\"jobs\":").append(jobs);
+      sb.append(",\"queueLimit\":").append(queueLimit);
+      sb.append(",\"cachedTables\":").append(cache.size());
+      sb.append(",\"cacheBytes\":").append(cache.bytes()).append('}');
+      send(exchange, 200, sb.toString());
+    }
+    finally {
+      exchange.close();
+    }
+  }
+  
+  private Job createJob(Map<String, String> params, CityTable cities) {
+    String name = params.getOrDefault("solver", "auto");
+    if (!Solvers.NAMES.contains(name)) {
+      throw new IllegalArgumentException("Unknown solver " + name
+              + ", expected one of " + Solvers.NAMES);
+    }
+    name = Solvers.resolve(name, cities);
+    
+    Solvers.Settings settings = new Solvers.Settings();
+    long millis = (long)(Double.parseDouble(
+            params.getOrDefault("time", "10")) * 1000);
+    if (millis <= 0 || millis > maxTimeMillis) {
+      throw new IllegalArgumentException("time must be in (0,"
+              + maxTimeMillis / 1000.0 + "] seconds");
+    }
+    settings.setTimeLimitMillis(millis);
+    if (params.containsKey("generations")) {
+      settings.setGenerations(Integer.parseInt(params.get("generations")));
+    }
+    if (params.containsKey("iterations")) {
+      settings.setIterations(Integer.parseInt(params.get("iterations")));
+    }
+    int priority = Integer.parseInt(params.getOrDefault("priority", "0"));
+    long seed = params.containsKey("seed")
+            ? Long.parseLong(params.get("seed")) : System.nanoTime();
+    
+    Solver solver = Solvers.create(name, cities, settings, seed);
+    return new Job(solver, name, cities, seed, priority);
+  }
+  
+  /**
+   * Takes a slot for a request, answering 503 if none is free.
+   * @return Whether a slot was taken.
+   */
+  private boolean takeSlot(HttpExchange exchange) throws IOException {
+    if (slots.tryAcquire()) {
+      return true;
+    }
+    exchange.getResponseHeaders().set("Retry-After",
+            Integer.toString(RETRY_AFTER));
+    send(exchange, 503, Json.object("error", "Too many requests in progress"));
+    return false;
+  }
+  
+  /**
+   * Reads a request body, answering 413 if it is too long.
+   * @return The body, or null if it was refused.
+   */
+  private byte[] readBody(HttpExchange exchange) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1 << 16];
+    try (InputStream in = exchange.getRequestBody()) {
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        if (body.size() + read > maxBodyBytes) {
+          send(exchange, 413, Json.object("error", "Tables are limited to "
+                  + maxBodyBytes + " bytes"));
+          return null;
+        }
+        body.write(buffer, 0, read);
+      }
+    }
+    return body.toByteArray();
+  }
+  
+  /**
+   * Gets a table from the cache or parses it, answering 400 if it is
+   * invalid.
+   * @return The table, or null if it was invalid.
+   */
+  private CityTable parse(HttpExchange exchange, String key, byte[] body)
+          throws IOException {
+    CityTable cities = cache.get(key);
+    if (cities != null) {
+      return cities;
+    }
+    try {
+      cities = TextCityTableFormat.parse(ByteBuffer.wrap(body),
+              symmetry);
+    }
+    catch (CityTableFormatException ex) {
+      send(exchange, 400, Json.object("error", ex.getMessage()));
+      return null;
+    }
+    cache.put(key, cities);
+    return cities;
+  }
+  
+  private static void send(HttpExchange exchange, int status, String json)
+          throws IOException {
+    byte[] bytes = (json + "\n").getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+  
+  private static Map<String, String> parseQuery(String query)
+          throws UnsupportedEncodingException {
+    Map<String, String> params = new HashMap<>();
+    if (query == null || query.isEmpty()) {
+      return params;
+    }
+    for (String pair : query.split("&")) {
+      int equals = pair.indexOf('=');
+      String name = equals < 0 ? pair : pair.substring(0, equals);
+      String value = equals < 0 ? "" : pair.substring(equals + 1);
+      params.put(URLDecoder.decode(name, "UTF-8"),
+              URLDecoder.decode(value, "UTF-8"));
+    }
+    return params;
+  }
+  
+  private static String hash(byte[] body) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    }
+    catch (NoSuchAlgorithmException ex) {
+      // every Java platform has SHA-256
+      throw new IllegalStateException(ex);
+    }
+  }
+  
+  private static ThreadFactory daemon(String name) {
+    return r -> {
+      Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    };
+  }
+  
+  /**
+   * Runs the service from the command line until the process is stopped.
+   * @param args The options.
+   * @return The exit status if the service could not start.
+   */
+  static int run(String[] args) {
+    String host = InetAddress.getLoopbackAddress().getHostAddress();
+    int port = 8080;
+    int jobs = Runtime.getRuntime().availableProcessors();
+    int queue = 4 * jobs;
+    long cacheBytes = 256L << 20;
+    Long maxTime = null;
+    Integer maxBody = null;
+    boolean symmetric = false;
+    try {
+      for (int i = 0; i < args.length; i++) {
+        String option = args[i];
+        if (option.equals("--symmetric")) {
+          symmetric = true;
+          continue;
+        }
+        if (i + 1 == args.length) {
+          throw new IllegalArgumentException("Missing value for " + option);
+        }
+        String value = args[++i];
+        switch (option) {
+          case "--host":
+            host = value;
+            break;
+          case "--port":
+            port = Integer.parseInt(value);
+            break;
+          case "--jobs":
+            jobs = Integer.parseInt(value);
+            break;
+          case "--queue":
+            queue = Integer.parseInt(value);
+            break;
+          case "--cache-mb":
+            cacheBytes = Long.parseLong(value) << 20;
+            break;
+          case "--max-time":
+            maxTime = (long)(Double.parseDouble(value) * 1000);
+            break;
+          case "--max-body-mb":
+            maxBody = Integer.parseInt(value) << 20;
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option " + option);
+        }
+      }
+      
+      final SolveService service = new SolveService(jobs, queue, cacheBytes);
+      if (maxTime != null) {
+        service.setMaxTimeMillis(maxTime);
+      }
+      if (maxBody != null) {
+        service.setMaxBodyBytes(maxBody);
+      }
+      if (symmetric) {
+        service.setSymmetry(CityTable.Symmetry.SYMMETRIC);
+      }
+      service.start(new InetSocketAddress(host, port));
+      Runtime.getRuntime().addShutdownHook(new Thread(service::stop));
+      System.out.println("Serving on http://" + host + ":"
+              + service.getPort() + "/");
+      return 0;
+    }
+    catch (NumberFormatException ex) {
+      System.out.println("Invalid number: " + ex.getMessage());
+    }
+    catch (IllegalArgumentException ex) {
+      System.out.println(ex.getMessage());
+      System.out.println("Usage: TravelingSalesman --serve [--host <host>] "
+              + "[--port <port>] [--jobs <n>] [--queue <n>] "
+              + "[--cache-mb <n>] [--max-time <seconds>] "
+              + "[--max-body-mb <n>] [--symmetric]");
+    }
+    catch (IOException ex) {
+      System.out.println("Error: " + ex.getMessage());
+    }
+    return 2;
+  }
+  
+  /**
+   * A queued solve.  Ordered by priority, then by arrival.
+   */
+  private final class Job implements Runnable, Comparable<Job> {
+    final Solver solver;
+    final String solverName;
+    final CityTable cities;
+    final long seed;
+    final int priority;
+    final long order = sequence.getAndIncrement();
+    final CompletableFuture<Solution> result = new CompletableFuture<>();
+    volatile long millis;
+    
+    Job(Solver solver, String solverName, CityTable cities, long seed,
+            int priority) {
+      this.solver = solver;
+      this.solverName = solverName;
+      this.cities = cities;
+      this.seed = seed;
+      this.priority = priority;
+    }
+    
+    @Override
+    public void run() {
+      running.incrementAndGet();
+      Solution best;
+      try {
+        Timer timer = new Timer();
+        timer.start();
+        best = solver.solve(cities);
+        timer.stop();
+        millis = timer.elapsedNanoSec() / 1000000;
+      }
+      catch (RuntimeException | OutOfMemoryError ex) {
+        finish();
+        result.completeExceptionally(ex);
+        return;
+      }
+      catch (Throwable ex) {
+        // the request still gets an answer before the error goes on
+        finish();
+        result.completeExceptionally(ex);
+        throw ex;
+      }
+      finish();
+      result.complete(best);
+    }
+    
+    /**
+     * Frees the job's slot, before its request is answered so the client can
+     * send another straight away.
+     */
+    private void finish() {
+      running.decrementAndGet();
+      slots.release();
+    }
+    
+    @Override
+    public int compareTo(Job other) {
+      if (priority != other.priority) {
+        return Integer.compare(other.priority, priority);
+      }
+      return Long.compare(order, other.order);
+    }
+  }
+}
@@ -0,0 +1,12 @@
+/**
+ * An algorithm that finds a short tour of the cities in a table.
+ */
+public interface Solver {
+  
+  /**
+   * Finds a tour.
+   * @param cities
+   * @return The best solution found, with its fitness known.
+   */
+  Solution solve(CityTable cities);
+}
@@ -0,0 +1,49 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for a phase of a solver, such as building the
+ * starting tours or the main search, and for a whole solve.
+ */
+@Name("tsp.SolverPhase")
+@Label("Solver Phase")
+@Description("A phase of solving a table")
+@Category("Traveling Salesman")
+class SolverPhaseEvent extends jdk.jfr.Event {
+  @Label("Solver")
+  String solver;
+  
+  @Label("Phase")
+  String phase;
+  
+  @Label("Cities")
+  int cities;
+  
+  @Label("Fitness")
+  @Description("Fitness of the best tour at the end of the phase, or -1")
+  int fitness = -1;
+  
+  /**
+   * Creates and begins the event.
+   * @param solver
+   * @param phase
+   * @param cities
+   */
+  SolverPhaseEvent(String solver, String phase, int cities) {
+    this.solver = solver;
+    this.phase = phase;
+    this.cities = cities;
+    begin();
+  }
+  
+  /**
+   * Ends the phase and records it.
+   * @param fitness The fitness at the end of the phase, or -1.
+   */
+  void finish(int fitness) {
+    this.fitness = fitness;
+    commit();
+  }
+}
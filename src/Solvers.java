@@ -0,0 +1,179 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Creates solvers by name, for callers that are not driven by the menu such
+ * as {@link BatchSolver}.
+ */
+final class Solvers {
+  /** The names {@link #create} accepts. */
+  static final List<String> NAMES = Arrays.asList("auto", "genetic",
+          "lin-kernighan", "held-karp", "branch-and-bound", "annealing",
+          "ant-colony");
+  
+  private Solvers() {
+  }
+  
+  /**
+   * The settings shared by every solver created by name.  Each solver only
+   * uses the ones that apply to it.
+   */
+  static final class Settings {
+    private long timeLimitMillis = 10000;
+    private int generations = 1000;
+    private int iterations = 200;
+    private double mutationRate = 0.1;
+    private int stagnation = 0;
+    private int chains = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * Sets the time limit of Lin-Kernighan, branch and bound and simulated
+     * annealing, and the deadline of the genetic algorithm.
+     * @param millis
+     */
+    void setTimeLimitMillis(long millis) {
+      if (millis < 0) {
+        throw new IllegalArgumentException("time limit < 0");
+      }
+      timeLimitMillis = millis;
+    }
+    
+    /**
+     * Sets the most generations of the genetic algorithm.
+     * @param generations At least 1.
+     */
+    void setGenerations(int generations) {
+      if (generations <= 0) {
+        throw new IllegalArgumentException("generations <= 0");
+      }
+      this.generations = generations;
+    }
+    
+    /**
+     * Sets the number of iterations of the ant colony.
+     * @param iterations
+     */
+    void setIterations(int iterations) {
+      if (iterations <= 0) {
+        throw new IllegalArgumentException("iterations <= 0");
+      }
+      this.iterations = iterations;
+    }
+    
+    /**
+     * Sets the mutation rate of the genetic algorithm.
+     * @param rate
+     */
+    void setMutationRate(double rate) {
+      if (rate < 0.0 || rate > 1.0) {
+        throw new IllegalArgumentException(
+                "mutation rate must be a percentage [0.0,1.0]");
+      }
+      mutationRate = rate;
+    }
+    
+    /**
+     * Stops the genetic algorithm after this many generations without
+     * improvement.
+     * @param generations The limit, or 0 for never.
+     */
+    void setStagnation(int generations) {
+      if (generations < 0) {
+        throw new IllegalArgumentException("stagnation < 0");
+      }
+      stagnation = generations;
+    }
+    
+    /**
+     * Sets how many chains simulated annealing runs in parallel, by default
+     * one per processor.
+     * @param chains
+     */
+    void setChains(int chains) {
+      if (chains <= 0) {
+        throw new IllegalArgumentException("chains <= 0");
+      }
+      this.chains = chains;
+    }
+  }
+  
+  /**
+   * Picks the solver "auto" stands for: Held-Karp for small tables,
+   * Lin-Kernighan for symmetric ones and simulated annealing otherwise.
+   * @param name
+   * @param cities
+   * @return The name unchanged unless it is "auto".
+   */
+  static String resolve(String name, CityTable cities) {
+    if (!name.equals("auto")) {
+      return name;
+    }
+    if (HeldKarpSolver.isSmall(cities)) {
+      return "held-karp";
+    }
+    return cities.isSymmetric() ? "lin-kernighan" : "annealing";
+  }
+  
+  /**
+   * Creates a solver for a table, see {@link #resolve}.  Nothing is printed
+   * while solving.  Several of the solvers also run parts of their work as
+   * fork/join tasks, on the pool the solve is called from or else the common
+   * pool.
+   * @param name One of {@link #NAMES}.
+   * @param cities
+   * @param settings
+   * @param seed
+   * @return
+   * @throws IllegalArgumentException If the name is unknown or the solver
+   * cannot solve the table.
+   */
+  static Solver create(String name, CityTable cities, Settings settings,
+          long seed) {
+    name = resolve(name, cities);
+    switch (name) {
+      case "genetic": {
+        TerminationPolicy termination = Termination.generations(
+                settings.generations);
+        if (settings.timeLimitMillis > 0) {
+          termination = Termination.anyOf(termination,
+                  Termination.deadline(settings.timeLimitMillis));
+        }
+        if (settings.stagnation > 0) {
+          termination = Termination.anyOf(termination,
+                  Termination.stagnation(settings.stagnation));
+        }
+        return new GeneticSolver(termination, settings.mutationRate, seed);
+      }
+      case "lin-kernighan":
+        requireSymmetric(name, cities);
+        return new LinKernighanSolver(settings.timeLimitMillis, seed);
+      case "held-karp":
+        if (cities.getNumCities() > HeldKarpSolver.MAX_CITIES) {
+          throw new IllegalArgumentException("held-karp is limited to "
+                  + HeldKarpSolver.MAX_CITIES + " cities");
+        }
+        return new HeldKarpSolver();
+      case "branch-and-bound":
+        requireSymmetric(name, cities);
+        return new BranchAndBoundSolver(settings.timeLimitMillis, seed);
+      case "annealing": {
+        SimulatedAnnealingSolver solver = new SimulatedAnnealingSolver(
+                settings.timeLimitMillis, seed);
+        solver.setChains(settings.chains);
+        return solver;
+      }
+      case "ant-colony":
+        return new AntColonySolver(settings.iterations, seed);
+      default:
+        throw new IllegalArgumentException("Unknown solver " + name
+                + ", expected one of " + NAMES);
+    }
+  }
+  
+  private static void requireSymmetric(String name, CityTable cities) {
+    if (!cities.isSymmetric()) {
+      throw new IllegalArgumentException(name
+              + " needs symmetric distances");
+    }
+  }
+}
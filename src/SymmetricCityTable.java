@@ -0,0 +1,77 @@
+/**
+ * A {@link CityTable} for symmetric distances, which only stores the lower
+ * triangle of the matrix (including the diagonal) packed row by row.  Uses
+ * about half the memory of a {@link MatrixCityTable}.
+ */
+class SymmetricCityTable extends CityTable {
+  private final DistanceStore distances;
+  
+  /**
+   * Gets the number of distances stored for a table.
+   * @param numCities
+   * @return
+   */
+  static long size(int numCities) {
+    return (long)numCities * (numCities + 1) / 2;
+  }
+  
+  /**
+   * Gets the position of a distance in the packed lower triangle.
+   * @param row
+   * @param column Must not be greater than row.
+   * @return
+   */
+  static long index(int row, int column) {
+    return ((long)row * (row + 1) >>> 1) + column;
+  }
+  
+  /**
+   * Packs any table that is known to be symmetric.
+   * @param table
+   * @return
+   */
+  static SymmetricCityTable copyOf(CityTable table) {
+    final int numCities = table.getNumCities();
+    DistanceStore store = DistanceStore.allocate(size(numCities),
+            table.getMaxDistance());
+    for (int i = 0; i < numCities; i++) {
+      for (int j = 0; j <= i; j++) {
+        store.set(index(i, j), table.getDistanceUnchecked(i, j));
+      }
+    }
+    return new SymmetricCityTable(numCities, store);
+  }
+  
+  /**
+   * Creates the table.
+   * @param numCities
+   * @param distances The packed lower triangle, see {@link #index(int, int)}.
+   */
+  SymmetricCityTable(int numCities, DistanceStore distances) {
+    super(numCities);
+    if (distances.size() != size(numCities)) {
+      throw new IllegalArgumentException("distances has the wrong size");
+    }
+    this.distances = distances;
+  }
+  
+  @Override
+  public int getDistanceUnchecked(int cityA, int cityB) {
+    // branch-free max/min: mask is all ones when cityA < cityB
+    int mask = (cityA - cityB) >> 31;
+    int swap = (cityA ^ cityB) & mask;
+    int row = cityA ^ swap;
+    int column = cityB ^ swap;
+    return distances.get(((long)row * (row + 1) >>> 1) + column);
+  }
+  
+  @Override
+  public boolean isSymmetric() {
+    return true;
+  }
+  
+  @Override
+  int getDistanceWidth() {
+    return distances.width();
+  }
+}
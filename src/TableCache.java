@@ -0,0 +1,91 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps parsed tables by a key, such as a hash of the text they were parsed
+ * from, so the same table is only parsed once.  The total size of the
+ * distances held is bounded, and the least recently used tables are evicted
+ * to stay under it.
+ */
+final class TableCache {
+  private final long maxBytes;
+  // in access order, so the first entry is the least recently used
+  private final LinkedHashMap<String, CityTable> tables =
+          new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes = 0;
+  
+  /**
+   * Creates the cache.
+   * @param maxBytes The most bytes of distances kept.
+   */
+  TableCache(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("maxBytes < 0");
+    }
+    this.maxBytes = maxBytes;
+  }
+  
+  /**
+   * Estimates the memory a table's distances take.
+   * @param cities
+   * @return
+   */
+  static long sizeOf(CityTable cities) {
+    int n = cities.getNumCities();
+    long entries = cities instanceof SymmetricCityTable
+            ? SymmetricCityTable.size(n) : (long)n * n;
+    return entries * cities.getDistanceWidth();
+  }
+  
+  /**
+   * Looks up a table, making it the most recently used.
+   * @param key
+   * @return The table, or null if it is not cached.
+   */
+  synchronized CityTable get(String key) {
+    return tables.get(key);
+  }
+  
+  /**
+   * Adds a table, evicting others until it fits.  A table bigger than the
+   * whole cache is not kept.
+   * @param key
+   * @param cities
+   */
+  synchronized void put(String key, CityTable cities) {
+    long size = sizeOf(cities);
+    CityTable old = tables.remove(key);
+    if (old != null) {
+      bytes -= sizeOf(old);
+    }
+    if (size > maxBytes) {
+      return;
+    }
+    
+    Iterator<Map.Entry<String, CityTable>> eldest =
+            tables.entrySet().iterator();
+    while (bytes + size > maxBytes) {
+      bytes -= sizeOf(eldest.next().getValue());
+      eldest.remove();
+    }
+    tables.put(key, cities);
+    bytes += size;
+  }
+  
+  /**
+   *
+   * @return The number of tables cached.
+   */
+  synchronized int size() {
+    return tables.size();
+  }
+  
+  /**
+   *
+   * @return The bytes of distances held by the cached tables.
+   */
+  synchronized long bytes() {
+    return bytes;
+  }
+}
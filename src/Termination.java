@@ -0,0 +1,156 @@
+/**
+ * The standard {@link TerminationPolicy}s: a generation count, a wall clock
+ * deadline, a limit on generations without improvement and a target
+ * distance, and combinations of them.
+ */
+public final class Termination {
+  private Termination() {
+  }
+  
+  /**
+   * Stops after a number of generations.
+   * @param generations
+   * @return
+   */
+  public static TerminationPolicy generations(final int generations) {
+    if (generations <= 0) {
+      throw new IllegalArgumentException("generations must be positive");
+    }
+    return new TerminationPolicy() {
+      @Override
+      public void start() {
+      }
+      
+      @Override
+      public boolean isDone(int done, int bestFitness) {
+        return done >= generations;
+      }
+    };
+  }
+  
+  /**
+   * Stops once a time limit has passed since the run started.  The
+   * generation running at the deadline is finished, so a run can take
+   * slightly longer.
+   * @param millis
+   * @return
+   */
+  public static TerminationPolicy deadline(long millis) {
+    if (millis < 0) {
+      throw new IllegalArgumentException("millis < 0");
+    }
+    final long nanos = millis * 1000000;
+    return new TerminationPolicy() {
+      private long deadline;
+      
+      @Override
+      public void start() {
+        deadline = System.nanoTime() + nanos;
+      }
+      
+      @Override
+      public boolean isDone(int generations, int bestFitness) {
+        return System.nanoTime() - deadline >= 0;
+      }
+    };
+  }
+  
+  /**
+   * Stops once the best solution has not improved for a number of
+   * generations.
+   * @param generations
+   * @return
+   */
+  public static TerminationPolicy stagnation(final int generations) {
+    if (generations <= 0) {
+      throw new IllegalArgumentException("generations must be positive");
+    }
+    return new TerminationPolicy() {
+      private int best;
+      private int improvedAt;
+      
+      @Override
+      public void start() {
+        best = Integer.MAX_VALUE;
+        improvedAt = 0;
+      }
+      
+      @Override
+      public boolean isDone(int done, int bestFitness) {
+        if (bestFitness < best) {
+          best = bestFitness;
+          improvedAt = done;
+        }
+        return done - improvedAt >= generations;
+      }
+    };
+  }
+  
+  /**
+   * Stops once a solution at least as short as a distance is found.
+   * @param distance
+   * @return
+   */
+  public static TerminationPolicy target(final int distance) {
+    return new TerminationPolicy() {
+      @Override
+      public void start() {
+      }
+      
+      @Override
+      public boolean isDone(int generations, int bestFitness) {
+        return bestFitness <= distance;
+      }
+    };
+  }
+  
+  /**
+   * Stops as soon as any of some policies would.
+   * @param policies
+   * @return
+   */
+  public static TerminationPolicy anyOf(TerminationPolicy... policies) {
+    return combine(false, policies);
+  }
+  
+  /**
+   * Stops once all of some policies would.
+   * @param policies
+   * @return
+   */
+  public static TerminationPolicy allOf(TerminationPolicy... policies) {
+    return combine(true, policies);
+  }
+  
+  private static TerminationPolicy combine(final boolean all,
+          TerminationPolicy... policies) {
+    if (policies.length == 0) {
+      throw new IllegalArgumentException("no policies");
+    }
+    final TerminationPolicy[] parts = policies.clone();
+    for (TerminationPolicy part : parts) {
+      if (part == null) {
+        throw new IllegalArgumentException("policy is null");
+      }
+    }
+    return new TerminationPolicy() {
+      @Override
+      public void start() {
+        for (TerminationPolicy part : parts) {
+          part.start();
+        }
+      }
+      
+      @Override
+      public boolean isDone(int generations, int bestFitness) {
+        // every part is asked, so those that track the run stay up to date
+        boolean result = all;
+        for (TerminationPolicy part : parts) {
+          boolean done = part.isDone(generations, bestFitness);
+          result = all ? result && done : result || done;
+        }
+        return result;
+      }
+    };
+  }
+}
@@ -0,0 +1,22 @@
+/**
+ * Decides when a run of {@link Population#evolve(TerminationPolicy)} stops.
+ * Policies can keep state about the run, such as when the best tour last
+ * improved, which {@link #start()} resets so a policy can be used again.
+ * See {@link Termination} for the standard policies and ways to combine
+ * them.
+ */
+public interface TerminationPolicy {
+  
+  /**
+   * Called when a run starts, before any generation.
+   */
+  void start();
+  
+  /**
+   * Called before each generation, and once more after the last.
+   * @param generations The number of generations evolved so far in the run.
+   * @param bestFitness The fitness of the best solution found so far.
+   * @return Whether the run should stop.
+   */
+  boolean isDone(int generations, int bestFitness);
+}
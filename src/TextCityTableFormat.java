@@ -0,0 +1,450 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * Parses the whitespace separated text format for city tables.  The input is
+ * split at whitespace into ranges which are scanned in two parallel passes:
+ * the first counts the tokens and lines in each range, so the second knows
+ * which matrix entry, line and column each range starts at and can parse its
+ * distances straight into the table.  Unless the table is declared
+ * asymmetric it is parsed into the packed lower triangle, and when
+ * detecting symmetry a third pass compares the upper triangle with it,
+ * only falling back to the full matrix if they differ.
+ */
+final class TextCityTableFormat {
+  // largest table the text format can hold, since it is parsed onto the heap
+  static final int MAX_CITIES = 46340;
+  
+  // ranges are kept big enough to amortise the per-range work, and small
+  // enough to be mapped in one piece
+  private static final long MIN_RANGE_SIZE = 1 << 20;
+  private static final long MAX_RANGE_SIZE = 1 << 30;
+  private static final int RANGES_PER_CORE = 4;
+  private static final int SCAN_WINDOW = 1 << 12;
+  
+  // longest tokens that always fit in the narrow distance widths
+  private static final int MAX_BYTE_DIGITS = 2;
+  private static final int MAX_SHORT_DIGITS = 4;
+  
+  private TextCityTableFormat() {
+  }
+  
+  /**
+   * Parses a table from a file.
+   * @param channel
+   * @param symmetry How to decide whether to store the table as symmetric.
+   * @return
+   * @throws IOException
+   * @throws CityTableFormatException
+   */
+  static CityTable parse(final FileChannel channel, CityTable.Symmetry symmetry)
+          throws IOException, CityTableFormatException {
+    return parse(new Input() {
+      @Override
+      public long size() throws IOException {
+        return channel.size();
+      }
+      
+      @Override
+      public ByteBuffer slice(long start, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+      }
+    }, symmetry);
+  }
+  
+  /**
+   * Parses a table held in memory.
+   * @param data The text, from its position to its limit.
+   * @param symmetry How to decide whether to store the table as symmetric.
+   * @return
+   * @throws CityTableFormatException
+   */
+  static CityTable parse(final ByteBuffer data, CityTable.Symmetry symmetry)
+          throws CityTableFormatException {
+    try {
+      return parse(new Input() {
+        @Override
+        public long size() {
+          return data.remaining();
+        }
+        
+        @Override
+        public ByteBuffer slice(long start, long length) {
+          ByteBuffer result = data.duplicate();
+          result.position(data.position() + (int)start);
+          result.limit(result.position() + (int)length);
+          return result.slice();
+        }
+      }, symmetry);
+    }
+    catch (IOException ex) {
+      // in-memory input never does any I/O
+      throw new IllegalStateException(ex);
+    }
+  }
+  
+  private static CityTable parse(Input input, CityTable.Symmetry symmetry)
+          throws IOException, CityTableFormatException {
+    final Range[] ranges = split(input);
+    
+    IntStream.range(0, ranges.length).parallel().forEach(i -> ranges[i].scan());
+    
+    // work out where each range starts in the token stream and the file
+    long tokens = 0;
+    long lines = 1;
+    long column = 1;
+    int maxDigits = 0;
+    for (Range range : ranges) {
+      range.firstToken = tokens;
+      range.firstLine = lines;
+      range.firstColumn = column;
+      tokens += range.tokens;
+      lines += range.newlines;
+      column = range.newlines > 0 ? range.lastLineLength + 1
+              : column + range.lastLineLength;
+      maxDigits = Math.max(maxDigits, range.maxTokenLength);
+    }
+    
+    final int numCities = parseHeader(ranges[0]);
+    final long entries = (long)numCities * numCities;
+    // the first token is the header
+    if (tokens - 1 < entries) {
+      throw new CityTableFormatException("Expected " + entries
+              + " distances but found " + Math.max(0, tokens - 1), lines, column);
+    }
+    
+    // pick a width from the longest token so parsing can write directly to
+    // the table, then narrow it afterwards if the values turn out smaller
+    int boundDistance = maxDigits <= MAX_BYTE_DIGITS ? 99
+            : maxDigits <= MAX_SHORT_DIGITS ? 9999 : Integer.MAX_VALUE;
+    // unless it is declared asymmetric, a table is parsed straight into the
+    // lower triangle, so detecting symmetry never needs the full matrix
+    if (symmetry != CityTable.Symmetry.ASYMMETRIC) {
+      CityTable result = parseTriangle(ranges, numCities, boundDistance,
+              symmetry == CityTable.Symmetry.DETECT);
+      if (result != null) {
+        return result;
+      }
+    }
+    return parseMatrix(ranges, numCities, entries, boundDistance);
+  }
+    
+  /**
+   * Parses the ranges into the lower triangle.
+   * @param detect Whether to compare the upper triangle with it afterwards.
+   * @return The table, or null if detect found it to be asymmetric.  The
+   * triangle is then no longer referenced, so it can be collected before a
+   * full matrix is allocated.
+   */
+  private static CityTable parseTriangle(final Range[] ranges,
+          final int numCities, int boundDistance, boolean detect)
+          throws CityTableFormatException {
+    final DistanceStore store = DistanceStore.allocate(
+            SymmetricCityTable.size(numCities), boundDistance);
+    IntStream.range(0, ranges.length).parallel()
+            .forEach(i -> ranges[i].parse(numCities, store, true, null));
+    int maxDistance = checkRanges(ranges);
+    
+    if (detect) {
+      // the triangle is complete, so every range can compare against it
+      final AtomicBoolean asymmetric = new AtomicBoolean();
+      IntStream.range(0, ranges.length).parallel().forEach(
+              i -> ranges[i].parse(numCities, store, true, asymmetric));
+      if (asymmetric.get()) {
+        return null;
+      }
+    }
+    return new SymmetricCityTable(numCities,
+            DistanceStore.narrow(store, maxDistance));
+  }
+  
+  private static CityTable parseMatrix(final Range[] ranges,
+          final int numCities, long entries, int boundDistance)
+          throws CityTableFormatException {
+    final DistanceStore store = DistanceStore.allocate(entries,
+            boundDistance);
+    IntStream.range(0, ranges.length).parallel()
+            .forEach(i -> ranges[i].parse(numCities, store, false, null));
+    int maxDistance = checkRanges(ranges);
+    return new MatrixCityTable(numCities,
+            DistanceStore.narrow(store, maxDistance));
+  }
+  
+  /**
+   * Throws the first error found by parsing the ranges.
+   * @return The largest distance in the ranges.
+   */
+  private static int checkRanges(Range[] ranges)
+          throws CityTableFormatException {
+    int maxDistance = 0;
+    for (Range range : ranges) {
+      if (range.error != null) {
+        throw range.error;
+      }
+      maxDistance = Math.max(maxDistance, range.maxDistance);
+    }
+    return maxDistance;
+  }
+  
+  /**
+   * Splits the input into ranges that each start just after whitespace, so no
+   * token is split between two ranges.
+   */
+  private static Range[] split(Input input) throws IOException {
+    final long size = input.size();
+    int cores = Runtime.getRuntime().availableProcessors();
+    long target = Math.max(MIN_RANGE_SIZE, size / (cores * RANGES_PER_CORE));
+    target = Math.min(target, MAX_RANGE_SIZE / 2);
+    
+    ArrayList<Range> ranges = new ArrayList<>();
+    long start = 0;
+    do {
+      long end = start + target >= size ? size
+              : nextBoundary(input, start + target, size);
+      if (end - start > MAX_RANGE_SIZE) {
+        throw new IOException("Token is too long to parse");
+      }
+      ranges.add(new Range(input.slice(start, end - start), start == 0));
+      start = end;
+    } while (start < size);
+    
+    return ranges.toArray(new Range[ranges.size()]);
+  }
+  
+  private static long nextBoundary(Input input, long from, long size)
+          throws IOException {
+    while (from < size) {
+      int length = (int)Math.min(SCAN_WINDOW, size - from);
+      ByteBuffer window = input.slice(from, length);
+      for (int i = 0; i < length; i++) {
+        if (isWhitespace(window.get(i))) {
+          return from + i + 1;
+        }
+      }
+      from += length;
+    }
+    return size;
+  }
+  
+  private static int parseHeader(Range first) throws CityTableFormatException {
+    ByteBuffer data = first.data;
+    int limit = data.limit();
+    long line = 1;
+    long column = 1;
+    int pos = 0;
+    while (pos < limit && isWhitespace(data.get(pos))) {
+      if (data.get(pos) == '\n') {
+        line++;
+        column = 1;
+      }
+      else {
+        column++;
+      }
+      pos++;
+    }
+    
+    long num = 0;
+    int digits = 0;
+    while (pos < limit && !isWhitespace(data.get(pos))) {
+      byte b = data.get(pos++);
+      if (b < '0' || b > '9' || num > MAX_CITIES) {
+        digits = 0;
+        break;
+      }
+      num = num * 10 + (b - '0');
+      digits++;
+    }
+    if (digits == 0 || num <= 0 || num > MAX_CITIES) {
+      throw new CityTableFormatException("File format invalid", line, column);
+    }
+    return (int)num;
+  }
+  
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f'
+            || b == 0x0B;
+  }
+  
+  /**
+   * Source of the bytes to parse.
+   */
+  private interface Input {
+    long size() throws IOException;
+    
+    ByteBuffer slice(long start, long length) throws IOException;
+  }
+  
+  /**
+   * A run of whole lines parsed by one task.
+   */
+  private static final class Range {
+    private final ByteBuffer data;
+    private final boolean first;
+    // filled in by the scan
+    private long tokens;
+    private long newlines;
+    private long lastLineLength;
+    private int maxTokenLength;
+    // filled in before parsing
+    private long firstToken;
+    private long firstLine;
+    private long firstColumn;
+    // filled in by the parse
+    private int maxDistance;
+    private CityTableFormatException error;
+    
+    Range(ByteBuffer data, boolean first) {
+      this.data = data;
+      this.first = first;
+    }
+    
+    /**
+     * Counts the tokens and line breaks in the range.
+     */
+    void scan() {
+      final int limit = data.limit();
+      // the header does not decide the width of the distances
+      boolean inHeader = first;
+      int tokenLength = 0;
+      for (int pos = 0; pos < limit; pos++) {
+        byte b = data.get(pos);
+        if (b == '\n') {
+          newlines++;
+          lastLineLength = 0;
+        }
+        else {
+          lastLineLength++;
+        }
+        
+        if (!isWhitespace(b)) {
+          tokenLength++;
+        }
+        else if (tokenLength > 0) {
+          tokens++;
+          if (!inHeader) {
+            maxTokenLength = Math.max(maxTokenLength, tokenLength);
+          }
+          inHeader = false;
+          tokenLength = 0;
+        }
+      }
+      if (tokenLength > 0) {
+        tokens++;
+        if (!inHeader) {
+          maxTokenLength = Math.max(maxTokenLength, tokenLength);
+        }
+      }
+    }
+    
+    /**
+     * Parses the distances in the range into the store.  Stops at the first
+     * error, which is kept in {@link #error}.
+     * @param numCities
+     * @param store
+     * @param triangle Whether the store only holds the lower triangle, in
+     * which case the upper triangle is parsed and validated but not kept.
+     * @param asymmetric If not null, nothing is stored; instead the upper
+     * triangle is compared with the lower triangle already in the store,
+     * and this is set at the first difference.
+     */
+    void parse(int numCities, DistanceStore store, boolean triangle,
+            AtomicBoolean asymmetric) {
+      final int limit = data.limit();
+      final long entries = (long)numCities * numCities;
+      long token = firstToken;
+      long line = firstLine;
+      long column = firstColumn;
+      int pos = 0;
+      
+      while (pos < limit && token - 1 < entries) {
+        // another range may already have found a difference
+        if (asymmetric != null && (token & 0xfff) == 0 && asymmetric.get()) {
+          return;
+        }
+        byte b = data.get(pos);
+        if (isWhitespace(b)) {
+          if (b == '\n') {
+            line++;
+            column = 1;
+          }
+          else {
+            column++;
+          }
+          pos++;
+          continue;
+        }
+        
+        // start of a token
+        long startColumn = column;
+        boolean negative = false;
+        if (b == '-') {
+          negative = true;
+          pos++;
+          column++;
+        }
+        long value = 0;
+        int digits = 0;
+        boolean valid = true;
+        while (pos < limit && !isWhitespace(b = data.get(pos))) {
+          if (b < '0' || b > '9') {
+            valid = false;
+          }
+          else if (value <= Integer.MAX_VALUE) {
+            value = value * 10 + (b - '0');
+          }
+          digits++;
+          pos++;
+          column++;
+        }
+        
+        if (token > 0) {
+          long entry = token - 1;
+          int from = (int)(entry / numCities);
+          int to = (int)(entry % numCities);
+          if (!valid || digits == 0) {
+            error = new CityTableFormatException(
+                    "Expected a distance", line, startColumn);
+            return;
+          }
+          if (negative && value != 0) {
+            error = new CityTableFormatException(
+                    "Invalid distance from " + from + " to " + to,
+                    line, startColumn);
+            return;
+          }
+          if (value > Integer.MAX_VALUE) {
+            error = new CityTableFormatException(
+                    "Distance from " + from + " to " + to + " is too large",
+                    line, startColumn);
+            return;
+          }
+          if (from == to && value != 0) {
+            error = new CityTableFormatException(
+                    "Distance from city " + from + " to itself is not 0",
+                    line, startColumn);
+            return;
+          }
+          if (asymmetric != null) {
+            if (to > from && store.get(SymmetricCityTable.index(to, from))
+                    != (int)value) {
+              asymmetric.set(true);
+              return;
+            }
+          }
+          else if (!triangle) {
+            store.set(entry, (int)value);
+          }
+          else if (to <= from) {
+            store.set(SymmetricCityTable.index(from, to), (int)value);
+          }
+          maxDistance = Math.max(maxDistance, (int)value);
+        }
+        token++;
+      }
+    }
+  }
+}
@@ -0,0 +1,37 @@
+import java.util.SplittableRandom;
+
+/**
+ * Chooses the best of a few members picked at random.  Larger tournaments
+ * favour the best members more strongly.  Needs no preparation, so the cost
+ * per generation does not depend on the size of the population.
+ */
+public class TournamentSelection implements Selection {
+  private final int size;
+  
+  /**
+   * Creates the strategy.
+   * @param size The number of members in each tournament.
+   */
+  public TournamentSelection(int size) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("size must be > 0");
+    }
+    this.size = size;
+  }
+  
+  @Override
+  public void prepare(int[] fitness) {
+  }
+  
+  @Override
+  public int select(int[] fitness, SplittableRandom rand) {
+    int best = rand.nextInt(fitness.length);
+    for (int i = 1; i < size; i++) {
+      int other = rand.nextInt(fitness.length);
+      if (fitness[other] < fitness[best]) {
+        best = other;
+      }
+    }
+    return best;
+  }
+}
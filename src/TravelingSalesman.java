@@ -1,7 +1,12 @@
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.text.MessageFormat;
+import java.util.Arrays;
+import javax.management.JMException;
 import util.Timer;
 import util.menu.BaseMenuItem;
 import util.menu.Menu;
@@ -10,14 +15,36 @@ import util.menu.Menu;
  * Traveling salesman program.
  */
 public class TravelingSalesman {
+  // generations between samples of the genetic algorithm's metrics
+  private static final int METRICS_INTERVAL = 10;
+  // most samples kept for the metrics CSV file
+  private static final int METRICS_CAPACITY = 100000;
+  // how often branch and bound prints its bounds
+  private static final long PROGRESS_MILLIS = 1000;
+  
   private Menu menu;
   private String loadedFile = "";
   CityTable cities;
   
   /**
-   * @param args the command line arguments
+   * @param args the command line arguments, or --batch followed by the
+   * arguments of {@link BatchSolver#run(String[])} to solve without the
+   * menu, or --serve followed by the arguments of
+   * {@link SolveService#run(String[])} to solve over HTTP
    */
   public static void main(String[] args) {
+    if (args.length > 0 && args[0].equals("--batch")) {
+      System.exit(BatchSolver.run(Arrays.copyOfRange(args, 1, args.length)));
+    }
+    if (args.length > 0 && args[0].equals("--serve")) {
+      // the server's threads keep running after main returns
+      int status = SolveService.run(Arrays.copyOfRange(args, 1,
+              args.length));
+      if (status != 0) {
+        System.exit(status);
+      }
+      return;
+    }
     new TravelingSalesman().run();
   }
   
@@ -49,6 +76,9 @@ public class TravelingSalesman {
         catch (FileNotFoundException ex) {
           System.out.println("File not found");
         }
+        catch (IOException ex) {
+          System.out.println("File error");
+        }
         return false;
       }
     });
@@ -71,24 +101,144 @@ public class TravelingSalesman {
           return false;
         }        
         try {
-          cities.save(getParent().readString("Enter filename: "));    
+          String path = getParent().readString("Enter filename: ");
+          if (path.endsWith(CityTable.BINARY_EXTENSION)) {
+            cities.saveBinary(path);
+          }
+          else {
+            cities.save(path);
+          }
           System.out.println("Saved");
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
           System.out.println("File error");
         }          
         return false;
       }
     });
     
-    menu.addItem(new BaseMenuItem("4", "Run Genetic Algorithm", menu) {      
+    menu.addItem(new BaseMenuItem("4", "Solve", menu) {
       @Override
       public boolean execute() {
-        int generations = getParent().readInt(
-                "How many generations? ", 1, Integer.MAX_VALUE);
-        double mutationRate = getParent().readDouble(
-                "Enter mutation rate: ", 0.0, 1.0);
-        runAlgorithm(generations, mutationRate);
+        if (cities == null) {
+          System.out.println("No city data loaded");
+          return false;
+        }
+        if (HeldKarpSolver.isSmall(cities)) {
+          System.out.println("Small table, solving exactly with Held-Karp");
+          runSolver(new HeldKarpSolver(), 0);
+          return false;
+        }
+        int choice = getParent().readInt("Solver (1 = genetic algorithm, "
+                + "2 = Lin-Kernighan, 3 = exact, 4 = branch and bound, "
+                + "5 = simulated annealing, 6 = ant colony): ", 1, 6);
+        if (choice == 3) {
+          if (cities.getNumCities() > HeldKarpSolver.MAX_CITIES) {
+            System.out.println("Exact solving is limited to "
+                    + HeldKarpSolver.MAX_CITIES + " cities");
+          }
+          else {
+            runSolver(new HeldKarpSolver(), 0);
+          }
+        }
+        else if (choice == 1) {
+          int generations = getParent().readInt(
+                  "How many generations? ", 1, Integer.MAX_VALUE);
+          double mutationRate = getParent().readDouble(
+                  "Enter mutation rate: ", 0.0, 1.0);
+          double seconds = getParent().readDouble(
+                  "Time limit in seconds (0 for none): ", 0.0, 1e6);
+          int stagnation = getParent().readInt("Stop after how many "
+                  + "generations without improvement (0 for never)? ",
+                  0, Integer.MAX_VALUE);
+          
+          // stop at whichever limit comes first
+          TerminationPolicy termination = Termination.generations(
+                  generations);
+          if (seconds > 0) {
+            termination = Termination.anyOf(termination,
+                    Termination.deadline((long)(seconds * 1000)));
+          }
+          if (stagnation > 0) {
+            termination = Termination.anyOf(termination,
+                    Termination.stagnation(stagnation));
+          }
+          String csvPath = getParent().readString(
+                  "Metrics CSV file (blank for none): ").trim();
+          GeneticSolver solver = new GeneticSolver(termination, mutationRate,
+                  System.nanoTime());
+          solver.setWorkers(Math.min(Runtime.getRuntime().availableProcessors(),
+                  Population.MAX_WORKERS));
+          
+          // visible over JMX while running, and kept for the CSV file
+          EvolutionMetrics metrics = new EvolutionMetrics(METRICS_INTERVAL,
+                  csvPath.isEmpty() ? 0 : METRICS_CAPACITY);
+          solver.setMetrics(metrics);
+          try {
+            metrics.register("solve");
+          }
+          catch (JMException ex) {
+            System.out.println("Metrics not registered: " + ex.getMessage());
+          }
+          try {
+            runSolver(solver, solver.getSeed());
+          }
+          finally {
+            try {
+              metrics.unregister();
+            }
+            catch (JMException ex) {
+              System.out.println("Metrics not unregistered: "
+                      + ex.getMessage());
+            }
+          }
+          if (!csvPath.isEmpty()) {
+            try (Writer out = new FileWriter(csvPath)) {
+              metrics.writeCsv(out);
+              System.out.println("Metrics saved");
+            }
+            catch (IOException e) {
+              System.out.println("File error");
+            }
+          }
+        }
+        else if (choice == 5) {
+          double seconds = getParent().readDouble(
+                  "Time limit in seconds: ", 0.0, 1e6);
+          int cooling = getParent().readInt(
+                  "Cooling (1 = geometric, 2 = linear): ", 1, 2);
+          SimulatedAnnealingSolver solver = new SimulatedAnnealingSolver(
+                  (long)(seconds * 1000), System.nanoTime());
+          solver.setCoolingSchedule(cooling == 1
+                  ? new GeometricCooling(0.001) : new LinearCooling(0.0));
+          runSolver(solver, solver.getSeed());
+        }
+        else if (choice == 6) {
+          int iterations = getParent().readInt(
+                  "How many iterations? ", 1, Integer.MAX_VALUE);
+          AntColonySolver solver = new AntColonySolver(iterations,
+                  System.nanoTime());
+          runSolver(solver, solver.getSeed());
+        }
+        else if (!cities.isSymmetric()) {
+          System.out.println((choice == 2 ? "Lin-Kernighan"
+                  : "Branch and bound") + " needs symmetric distances");
+        }
+        else if (choice == 4) {
+          double seconds = getParent().readDouble(
+                  "Time limit in seconds: ", 0.0, 1e6);
+          BranchAndBoundSolver solver = new BranchAndBoundSolver(
+                  (long)(seconds * 1000), System.nanoTime());
+          solver.setProgressInterval(PROGRESS_MILLIS);
+          runSolver(solver, solver.getSeed());
+        }
+        else {
+          double seconds = getParent().readDouble(
+                  "Time limit in seconds: ", 0.0, 1e6);
+          LinKernighanSolver solver = new LinKernighanSolver(
+                  (long)(seconds * 1000), System.nanoTime());
+          runSolver(solver, solver.getSeed());
+        }
         return false;
       }
     });
@@ -109,29 +259,29 @@ public class TravelingSalesman {
   }
   
   /**
-   * Execute the algorithm.
-   * @param generations
-   * @param mutationRate 
+   * Run a solver on the loaded cities.
+   * @param solver
+   * @param seed The solver's seed, to be shown, or 0 if it has none.
    */
-  private void runAlgorithm(int generations, double mutationRate) {
-    if (generations <= 0) {
-      throw new IllegalArgumentException("generations must be positive");
-    }
-    if (mutationRate < 0.0 || mutationRate > 1.0) {
-      throw new IllegalArgumentException(
-              "mutationRate must be a percentage [0.0,1.0]");
-    }
-    
-    Population pop = new Population(cities, mutationRate);
+  private void runSolver(Solver solver, long seed) {
     Timer timer = new Timer();
     
     timer.start();
-    pop.evolve(generations);
+    Solution best;
+    try {
+      best = solver.solve(cities);
+    }
+    catch (IllegalStateException ex) {
+      System.out.println(ex.getMessage());
+      return;
+    }
     timer.stop();
     
-    System.out.println("Evolved " + generations + " generations in " + 
-            timer.elapsedSec() + " seconds");
-    System.out.println("Solution: " + pop.getBest());
-    System.out.println("Distance: " + pop.getBest().getDistance());
+    System.out.println("Solved in " + timer.elapsedSec() + " seconds");
+    if (seed != 0) {
+      System.out.println("Seed: " + seed);
+    }
+    System.out.println("Solution: " + best);
+    System.out.println("Distance: " + best.getDistance());
   }
 }
@@ -0,0 +1,101 @@
+import java.util.SplittableRandom;
+
+/**
+ * Chooses uniformly from the best fraction of the population.  The best
+ * members are found by quickselect in linear time, without sorting them.
+ * Keeps state between {@link #prepare(int[]) prepare} and
+ * {@link #select(int[], SplittableRandom) select}, so each population needs
+ * its own instance.
+ */
+public class TruncationSelection implements Selection {
+  private final double fraction;
+  // member indices, the best count of them first after prepare
+  private int[] indices;
+  private int count;
+  
+  /**
+   * Creates the strategy.
+   * @param fraction The part of the population parents are chosen from.
+   */
+  public TruncationSelection(double fraction) {
+    if (!(fraction > 0 && fraction <= 1)) {
+      throw new IllegalArgumentException("fraction must be in (0,1]");
+    }
+    this.fraction = fraction;
+  }
+  
+  @Override
+  public void prepare(int[] fitness) {
+    if (indices == null || indices.length != fitness.length) {
+      indices = new int[fitness.length];
+      for (int i = 0; i < indices.length; i++) {
+        indices[i] = i;
+      }
+    }
+    count = Math.min(fitness.length,
+            Math.max(2, (int)(fraction * fitness.length)));
+    selectSmallest(fitness, indices, count);
+  }
+  
+  @Override
+  public int select(int[] fitness, SplittableRandom rand) {
+    return indices[rand.nextInt(count)];
+  }
+  
+  /**
+   * Reorders indices so the first count of them are the indices with the
+   * smallest fitness, in no particular order.  Uses quickselect with the
+   * median of three as the pivot.
+   * @param fitness
+   * @param indices Any permutation of the indices of fitness.
+   * @param count From 1 to the number of indices.
+   */
+  static void selectSmallest(int[] fitness, int[] indices, int count) {
+    final int target = count - 1;
+    int low = 0;
+    int high = indices.length - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (fitness[indices[mid]] < fitness[indices[low]]) {
+        swap(indices, mid, low);
+      }
+      if (fitness[indices[high]] < fitness[indices[low]]) {
+        swap(indices, high, low);
+      }
+      if (fitness[indices[high]] < fitness[indices[mid]]) {
+        swap(indices, high, mid);
+      }
+      int pivot = fitness[indices[mid]];
+      
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (fitness[indices[i]] < pivot) {
+          i++;
+        }
+        while (fitness[indices[j]] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(indices, i++, j--);
+        }
+      }
+      // everything in (j, i) equals the pivot
+      if (target <= j) {
+        high = j;
+      }
+      else if (target >= i) {
+        low = i;
+      }
+      else {
+        return;
+      }
+    }
+  }
+  
+  private static void swap(int[] indices, int a, int b) {
+    int temp = indices[a];
+    indices[a] = indices[b];
+    indices[b] = temp;
+  }
+}
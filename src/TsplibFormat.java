@@ -0,0 +1,163 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads TSPLIB problem files that give the cities as coordinates
+ * (NODE_COORD_SECTION), producing a {@link CoordinateCityTable}.  Supports
+ * the EUC_2D, CEIL_2D, ATT and GEO edge weight types.
+ */
+final class TsplibFormat {
+  private TsplibFormat() {
+  }
+  
+  /**
+   * Checks whether a file looks like a TSPLIB file, which starts with a
+   * keyword where the text format starts with a number.  The channel's
+   * position is left unchanged.
+   * @param channel
+   * @return
+   * @throws IOException
+   */
+  static boolean isTsplib(FileChannel channel) throws IOException {
+    ByteBuffer start = ByteBuffer.allocate(256);
+    channel.read(start, 0);
+    for (int i = 0; i < start.position(); i++) {
+      byte b = start.get(i);
+      if (!Character.isWhitespace(b)) {
+        return Character.isLetter(b);
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Parses a TSPLIB file.
+   * @param channel
+   * @return
+   * @throws IOException
+   * @throws CityTableFormatException
+   */
+  static CityTable parse(FileChannel channel)
+          throws IOException, CityTableFormatException {
+    channel.position(0);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+            Channels.newInputStream(channel), StandardCharsets.US_ASCII));
+    
+    int dimension = -1;
+    CoordinateCityTable.Metric metric = null;
+    long lineNumber = 0;
+    String line;
+    
+    // specification part, "KEY : VALUE" lines up to the data section
+    while (true) {
+      line = reader.readLine();
+      lineNumber++;
+      if (line == null) {
+        throw new CityTableFormatException("Missing NODE_COORD_SECTION",
+                lineNumber, 1);
+      }
+      line = line.trim();
+      if (line.isEmpty()) {
+        continue;
+      }
+      if (line.startsWith("NODE_COORD_SECTION")) {
+        break;
+      }
+      
+      int colon = line.indexOf(':');
+      String key = (colon < 0 ? line : line.substring(0, colon)).trim();
+      String value = colon < 0 ? "" : line.substring(colon + 1).trim();
+      switch (key) {
+        case "DIMENSION":
+          try {
+            dimension = Integer.parseInt(value);
+          }
+          catch (NumberFormatException ex) {
+            dimension = -1;
+          }
+          if (dimension <= 0) {
+            throw new CityTableFormatException("Invalid DIMENSION",
+                    lineNumber, colon + 2);
+          }
+          break;
+        case "TYPE":
+          if (!value.equals("TSP")) {
+            throw new CityTableFormatException("Unsupported TYPE " + value,
+                    lineNumber, colon + 2);
+          }
+          break;
+        case "EDGE_WEIGHT_TYPE":
+          try {
+            metric = CoordinateCityTable.Metric.valueOf(value);
+          }
+          catch (IllegalArgumentException ex) {
+            throw new CityTableFormatException(
+                    "Unsupported EDGE_WEIGHT_TYPE " + value,
+                    lineNumber, colon + 2);
+          }
+          break;
+        default:
+          // NAME, COMMENT etc. are not needed
+          break;
+      }
+    }
+    
+    if (dimension <= 0) {
+      throw new CityTableFormatException("Missing DIMENSION", lineNumber, 1);
+    }
+    if (metric == null) {
+      throw new CityTableFormatException("Missing EDGE_WEIGHT_TYPE",
+              lineNumber, 1);
+    }
+    
+    double[] x = new double[dimension];
+    double[] y = new double[dimension];
+    boolean[] seen = new boolean[dimension];
+    int count = 0;
+    while (count < dimension) {
+      line = reader.readLine();
+      lineNumber++;
+      if (line == null || line.trim().equals("EOF")) {
+        throw new CityTableFormatException("Expected " + dimension
+                + " cities but found " + count, lineNumber, 1);
+      }
+      String[] fields = line.trim().split("\\s+");
+      if (fields.length == 1 && fields[0].isEmpty()) {
+        continue;
+      }
+      if (fields.length != 3) {
+        throw new CityTableFormatException("Expected a city id and two "
+                + "coordinates", lineNumber, 1);
+      }
+      
+      int city;
+      try {
+        city = Integer.parseInt(fields[0]) - 1;
+      }
+      catch (NumberFormatException ex) {
+        city = -1;
+      }
+      if (city < 0 || city >= dimension || seen[city]) {
+        throw new CityTableFormatException("Invalid city id " + fields[0],
+                lineNumber, 1);
+      }
+      try {
+        x[city] = Double.parseDouble(fields[1]);
+        y[city] = Double.parseDouble(fields[2]);
+      }
+      catch (NumberFormatException ex) {
+        throw new CityTableFormatException("Invalid coordinate", lineNumber,
+                line.indexOf(fields[1]) + 1);
+      }
+      seen[city] = true;
+      count++;
+    }
+    
+    return new CoordinateCityTable(metric, x, y);
+  }
+}
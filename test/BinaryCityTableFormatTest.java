@@ -0,0 +1,161 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Writes full and packed tables of each distance width, maps them back and
+ * checks that damaged files are refused.
+ */
+public class BinaryCityTableFormatTest {
+  private static final int CITIES = 37;
+  
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  
+  @Test
+  public void mapsWhatWasWrittenForEachWidth()
+          throws IOException, CityTableFormatException {
+    int[] maxDistances = {DistanceStore.MAX_BYTE_DISTANCE,
+      DistanceStore.MAX_SHORT_DISTANCE, Integer.MAX_VALUE};
+    int[] widths = {Byte.BYTES, Short.BYTES, Integer.BYTES};
+    for (int w = 0; w < widths.length; w++) {
+      for (boolean symmetric : new boolean[] {false, true}) {
+        CityTable written = randomTable(maxDistances[w], w, symmetric);
+        assertEquals(widths[w], written.getDistanceWidth());
+      
+        CityTable mapped = map(write(written));
+        assertEquals(widths[w], mapped.getDistanceWidth());
+        assertEquals(symmetric, mapped.isSymmetric());
+        assertSameDistances(written, mapped);
+      }
+    }
+  }
+  
+  @Test
+  public void refusesATruncatedHeader() throws IOException {
+    byte[] bytes = bytes(write(randomTable(100, 1)));
+    assertRefused(file(bytes, BinaryCityTableFormat.HEADER_SIZE - 1));
+  }
+  
+  @Test
+  public void refusesATruncatedTable() throws IOException {
+    byte[] bytes = bytes(write(randomTable(100, 1)));
+    assertRefused(file(bytes, bytes.length - 1));
+  }
+  
+  @Test
+  public void refusesACorruptHeader() throws IOException {
+    byte[] bytes = bytes(write(randomTable(100, 1)));
+    
+    // another version
+    ByteBuffer.wrap(bytes).putShort(4, (short)(BinaryCityTableFormat.VERSION
+            + 1));
+    assertRefused(file(bytes, bytes.length));
+    ByteBuffer.wrap(bytes).putShort(4, BinaryCityTableFormat.VERSION);
+    
+    // a width that does not exist
+    bytes[6] = 3;
+    assertRefused(file(bytes, bytes.length));
+    bytes[6] = Byte.BYTES;
+    
+    // a count of distances that does not match the number of cities
+    ByteBuffer.wrap(bytes).putLong(12, (long)CITIES * CITIES - 1);
+    assertRefused(file(bytes, bytes.length));
+    
+    // a count so large that its size in bytes overflows
+    ByteBuffer.wrap(bytes).putInt(8, Integer.MAX_VALUE)
+            .putLong(12, (long)Integer.MAX_VALUE * Integer.MAX_VALUE);
+    bytes[6] = Integer.BYTES;
+    assertRefused(file(bytes, bytes.length));
+  }
+  
+  @Test
+  public void refusesANonZeroDiagonal() throws IOException {
+    byte[] bytes = bytes(write(randomTable(100, 1)));
+    // the distance from the last city to itself is the last byte
+    bytes[bytes.length - 1] = 1;
+    assertRefused(file(bytes, bytes.length));
+  }
+  
+  private static CityTable randomTable(int maxDistance, long seed) {
+    return randomTable(maxDistance, seed, false);
+  }
+  
+  private static CityTable randomTable(int maxDistance, long seed,
+          boolean symmetric) {
+    Random random = new Random(seed);
+    DistanceStore store = DistanceStore.allocate(symmetric
+            ? SymmetricCityTable.size(CITIES) : (long)CITIES * CITIES,
+            maxDistance);
+    for (int i = 0; i < CITIES; i++) {
+      for (int j = 0; j < (symmetric ? i + 1 : CITIES); j++) {
+        // the largest distance is always there, so every byte is used
+        int distance = i == j ? 0 : i == 1 && j == 0 ? maxDistance
+                : 1 + random.nextInt(maxDistance);
+        store.set(symmetric ? SymmetricCityTable.index(i, j)
+                : (long)i * CITIES + j, distance);
+      }
+    }
+    return symmetric ? new SymmetricCityTable(CITIES, store)
+            : new MatrixCityTable(CITIES, store);
+  }
+  
+  private static void assertSameDistances(CityTable expected,
+          CityTable actual) {
+    assertEquals(expected.getNumCities(), actual.getNumCities());
+    for (int i = 0; i < expected.getNumCities(); i++) {
+      for (int j = 0; j < expected.getNumCities(); j++) {
+        assertEquals(i + " to " + j, expected.getDistanceUnchecked(i, j),
+                actual.getDistanceUnchecked(i, j));
+      }
+    }
+  }
+  
+  private File write(CityTable table) throws IOException {
+    File file = folder.newFile();
+    try (FileChannel out = FileChannel.open(file.toPath(),
+            StandardOpenOption.WRITE)) {
+      BinaryCityTableFormat.write(table, out);
+    }
+    return file;
+  }
+  
+  private File file(byte[] bytes, int length) throws IOException {
+    File file = folder.newFile();
+    try (FileChannel out = FileChannel.open(file.toPath(),
+            StandardOpenOption.WRITE)) {
+      out.write(ByteBuffer.wrap(bytes, 0, length));
+    }
+    return file;
+  }
+  
+  private static byte[] bytes(File file) throws IOException {
+    return Files.readAllBytes(file.toPath());
+  }
+  
+  private static void assertRefused(File file) throws IOException {
+    try {
+      map(file);
+      fail("mapped a damaged table");
+    }
+    catch (CityTableFormatException ex) {
+      // expected
+    }
+  }
+  
+  private static CityTable map(File file)
+          throws IOException, CityTableFormatException {
+    try (FileChannel in = FileChannel.open(file.toPath(),
+            StandardOpenOption.READ)) {
+      return BinaryCityTableFormat.map(in);
+    }
+  }
+}
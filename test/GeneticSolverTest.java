@@ -0,0 +1,56 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Measures how far the genetic algorithm ends up from the optimal tours
+ * Held-Karp finds for the tables in data/.  The seeds are fixed so the
+ * results are repeatable.
+ */
+public class GeneticSolverTest {
+  private static final String[] TABLES = {
+    "data/ts5.dat", "data/ts10.dat", "data/ts20.dat"
+  };
+  private static final long[] SEEDS = {1, 2, 3};
+  
+  @Test
+  public void plainEvolutionStaysNearTheOptimum() throws Exception {
+    for (String path : TABLES) {
+      CityTable cities = load(path);
+      int optimum = optimum(cities);
+      for (long seed : SEEDS) {
+        int distance = new GeneticSolver(1000, 0.1, seed).solve(cities)
+                .getDistance();
+        assertGap(path, seed, distance, optimum, 0.5);
+      }
+    }
+  }
+  
+  @Test
+  public void localSearchFindsTheOptimum() throws Exception {
+    for (String path : TABLES) {
+      CityTable cities = load(path);
+      int optimum = optimum(cities);
+      for (long seed : SEEDS) {
+        GeneticSolver solver = new GeneticSolver(200, 0.1, seed);
+        solver.setLocalSearch(8, false);
+        assertGap(path, seed, solver.solve(cities).getDistance(), optimum,
+                0.0);
+      }
+    }
+  }
+  
+  private static CityTable load(String path) throws Exception {
+    return CityTable.loadFromFile(path, CityTable.Symmetry.DETECT);
+  }
+  
+  private static int optimum(CityTable cities) {
+    return new HeldKarpSolver().solve(cities).getDistance();
+  }
+  
+  private static void assertGap(String path, long seed, int distance,
+          int optimum, double maxGap) {
+    double gap = (double)(distance - optimum) / optimum;
+    assertTrue(path + " seed " + seed + ": " + distance + " vs optimum "
+            + optimum, distance >= optimum && gap <= maxGap);
+  }
+}
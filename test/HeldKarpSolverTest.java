@@ -0,0 +1,33 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks Held-Karp against the known optimal tours of the tables in data/.
+ */
+public class HeldKarpSolverTest {
+  
+  @Test
+  public void solvesTs5Optimally() throws Exception {
+    assertOptimal("data/ts5.dat", 8);
+  }
+  
+  @Test
+  public void solvesTs10Optimally() throws Exception {
+    assertOptimal("data/ts10.dat", 27);
+  }
+  
+  @Test
+  public void solvesTs20Optimally() throws Exception {
+    assertOptimal("data/ts20.dat", 33);
+  }
+  
+  private static void assertOptimal(String path, int optimum)
+          throws Exception {
+    CityTable cities = CityTable.loadFromFile(path, CityTable.Symmetry.DETECT);
+    Solution tour = new HeldKarpSolver().solve(cities);
+    assertEquals(cities.getNumCities(), tour.getTour().length);
+    // rebuilding checks every city is visited once
+    assertEquals(optimum, new Solution(cities, tour.getTour()).getDistance());
+    assertEquals(optimum, tour.getFitness());
+  }
+}
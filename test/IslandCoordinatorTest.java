@@ -0,0 +1,93 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs a coordinator with real workers and broken ones in this process,
+ * over the loopback interface.
+ */
+public class IslandCoordinatorTest {
+  private CityTable cities;
+  private ExecutorService threads;
+  
+  @Before
+  public void setUp() throws IOException {
+    cities = CityTable.loadFromFile("data/ts20.dat");
+    threads = Executors.newCachedThreadPool();
+  }
+  
+  @After
+  public void tearDown() {
+    threads.shutdownNow();
+  }
+  
+  @Test(timeout = 60000)
+  public void finishesWithTheMergedBestWhenWorkersDie() throws Exception {
+    IslandCoordinator coordinator = new IslandCoordinator(cities, 0.1, 200,
+            10, 1);
+    coordinator.setTimeoutMillis(2000);
+    try (ServerSocket server = new ServerSocket(0, 50,
+            InetAddress.getLoopbackAddress())) {
+      Future<Solution> result = threads.submit(
+              () -> coordinator.run(server, 4, 10000));
+      int port = server.getLocalPort();
+      
+      // reports one tour and then dies
+      Solution reported = new Solution(cities, identity());
+      try (Socket killed = connect(port)) {
+        DataOutputStream out = new DataOutputStream(killed.getOutputStream());
+        out.writeByte(IslandProtocol.MIGRANT);
+        IslandProtocol.writeTour(out, reported);
+        out.flush();
+      }
+      // stays connected but never says anything again
+      Socket hung = connect(port);
+      
+      try {
+        Future<Solution> first = threads.submit(
+                () -> new IslandWorker("localhost", port).run());
+        Future<Solution> second = threads.submit(
+                () -> new IslandWorker("localhost", port).run());
+        
+        // a worker returns the best it found, which it has reported
+        int expected = Math.min(reported.getFitness(),
+                Math.min(first.get().getFitness(),
+                        second.get().getFitness()));
+        Solution best = result.get();
+        assertNotNull(best);
+        assertEquals(expected, best.getFitness());
+        assertEquals(best.getFitness(), best.getDistance());
+      }
+      finally {
+        hung.close();
+      }
+    }
+  }
+  
+  private static Socket connect(int port) throws IOException {
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+    out.writeByte(IslandProtocol.HELLO);
+    out.writeInt(IslandProtocol.MAGIC);
+    out.writeShort(IslandProtocol.VERSION);
+    out.flush();
+    return socket;
+  }
+  
+  private int[] identity() {
+    int[] tour = new int[cities.getNumCities()];
+    for (int i = 0; i < tour.length; i++) {
+      tour[i] = i;
+    }
+    return tour;
+  }
+}
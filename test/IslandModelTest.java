@@ -0,0 +1,37 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Evolves a few islands and checks what they publish.
+ */
+public class IslandModelTest {
+  @Test(timeout = 60000)
+  public void takesInTheMigrantsOfTheLastRun() {
+    CityTable cities = CityTable.generateRandom(60);
+    IslandModel model = new IslandModel(cities, 4, 0.1,
+            IslandModel.Topology.FULL, 1, 7);
+    model.evolve(30);
+    int best = model.getBest().getFitness();
+    
+    // every island's last migrants are waiting in the others' inboxes, and
+    // are taken in after the first generation of the next run
+    model.evolve(2);
+    for (int i = 0; i < model.getNumIslands(); i++) {
+      assertTrue("island " + i, model.getBest(i).getFitness() <= best);
+    }
+  }
+  
+  @Test(timeout = 60000)
+  public void publishesTheBestOfAllIslands() {
+    CityTable cities = CityTable.generateRandom(60);
+    IslandModel model = new IslandModel(cities, new double[] {0.05, 0.1, 0.2},
+            IslandModel.Topology.RING, 5, 11);
+    model.evolve(50);
+    
+    Solution best = model.getBest();
+    for (int i = 0; i < model.getNumIslands(); i++) {
+      assertTrue(best.getFitness() <= model.getBest(i).getFitness());
+    }
+    assertEquals(best.getDistance(), best.getFitness());
+  }
+}
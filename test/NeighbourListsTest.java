@@ -0,0 +1,37 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the lists a table hands out as different sizes are asked for.
+ */
+public class NeighbourListsTest {
+  
+  @Test
+  public void shorterListsAreTrimmedFromTheLongest() {
+    CityTable cities = CityTable.generateRandom(50);
+    NeighbourLists shortFirst = NeighbourLists.build(cities, 5);
+    NeighbourLists longest = NeighbourLists.build(cities, 20);
+    
+    cities.getNearestNeighbours(5);
+    NeighbourLists big = cities.getNearestNeighbours(20);
+    NeighbourLists small = cities.getNearestNeighbours(5);
+    assertEquals(20, big.size());
+    assertEquals(5, small.size());
+    assertSame(big, cities.getNearestNeighbours(20));
+    for (int city = 0; city < cities.getNumCities(); city++) {
+      for (int rank = 0; rank < 20; rank++) {
+        assertEquals(longest.get(city, rank), big.get(city, rank));
+      }
+      for (int rank = 0; rank < 5; rank++) {
+        assertEquals(shortFirst.get(city, rank), small.get(city, rank));
+      }
+    }
+  }
+  
+  @Test
+  public void sizeIsCappedByTheNumberOfOtherCities() {
+    CityTable cities = CityTable.generateRandom(4);
+    assertEquals(3, cities.getNearestNeighbours(10).size());
+    assertEquals(2, cities.getNearestNeighbours(2).size());
+  }
+}
@@ -0,0 +1,64 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Checks that evolving allocates nothing per generation once warmed up,
+ * apart from the copy published when the best improves.  Runs with one
+ * worker so all breeding happens on the measured thread.
+ */
+public class PopulationAllocationTest {
+  private static final int WARM_UP = 200;
+  private static final int GENERATIONS = 1000;
+  // room for the odd lazily initialised object in the JDK
+  private static final long SLACK_BYTES = 4096;
+  
+  private com.sun.management.ThreadMXBean threads;
+  
+  @Before
+  public void setUp() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    threads = (com.sun.management.ThreadMXBean)bean;
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+  
+  @Test
+  public void steadyStateGenerationsDoNotAllocate() throws Exception {
+    assertAllocationFree(CityTable.loadFromFile("data/ts20.dat"));
+  }
+  
+  @Test
+  public void steadyStateGenerationsDoNotAllocateOnLargerTables() {
+    assertAllocationFree(CityTable.generateRandom(200));
+  }
+  
+  private void assertAllocationFree(CityTable cities) {
+    Population pop = new Population(cities, 0.1, 1);
+    pop.setWorkers(1);
+    pop.evolve(WARM_UP);
+    
+    long thread = Thread.currentThread().getId();
+    int improvements = 0;
+    Solution best = pop.getBestSoFar();
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < GENERATIONS; i++) {
+      pop.evolve(1);
+      if (pop.getBestSoFar() != best) {
+        best = pop.getBestSoFar();
+        improvements++;
+      }
+    }
+    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+    
+    // a published copy is the object and its two int arrays
+    long copyBytes = 2 * (16 + 4L * cities.getNumCities()) + 64;
+    assertTrue(allocated + " bytes allocated over " + GENERATIONS
+            + " generations with " + improvements + " improvements",
+            allocated <= improvements * copyBytes + SLACK_BYTES);
+  }
+}
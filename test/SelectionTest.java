@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks which members the selection strategies choose, and that the elite
+ * are carried over.
+ */
+public class SelectionTest {
+  @Test
+  public void truncationOnlyChoosesFromTheBest() {
+    SplittableRandom rand = new SplittableRandom(3);
+    TruncationSelection selection = new TruncationSelection(0.25);
+    for (int round = 0; round < 200; round++) {
+      // few distinct values, so many members tie
+      int[] fitness = new int[40 + rand.nextInt(60)];
+      for (int i = 0; i < fitness.length; i++) {
+        fitness[i] = rand.nextInt(1 + round % 50);
+      }
+      int count = Math.max(2, (int)(0.25 * fitness.length));
+      int[] sorted = fitness.clone();
+      Arrays.sort(sorted);
+      int worstAllowed = sorted[count - 1];
+      
+      selection.prepare(fitness);
+      for (int i = 0; i < 1000; i++) {
+        int chosen = selection.select(fitness, rand);
+        assertTrue(fitness[chosen] <= worstAllowed);
+      }
+    }
+  }
+  
+  @Test
+  public void selectSmallestPutsTheBestFirst() {
+    SplittableRandom rand = new SplittableRandom(5);
+    for (int round = 0; round < 1000; round++) {
+      int n = 1 + rand.nextInt(50);
+      int[] fitness = new int[n];
+      int[] indices = new int[n];
+      for (int i = 0; i < n; i++) {
+        fitness[i] = rand.nextInt(1 + round % 20);
+        indices[i] = n - 1 - i;
+      }
+      int count = 1 + rand.nextInt(n);
+      TruncationSelection.selectSmallest(fitness, indices, count);
+      
+      int[] sorted = fitness.clone();
+      Arrays.sort(sorted);
+      int[] first = new int[count];
+      for (int i = 0; i < count; i++) {
+        first[i] = fitness[indices[i]];
+      }
+      Arrays.sort(first);
+      assertArrayEquals(Arrays.copyOf(sorted, count), first);
+      int[] all = indices.clone();
+      Arrays.sort(all);
+      for (int i = 0; i < n; i++) {
+        assertEquals(i, all[i]);
+      }
+    }
+  }
+  
+  @Test
+  public void eliteSurviveEachGeneration() {
+    final int elitism = 3;
+    CityTable cities = CityTable.generateRandom(40);
+    Population pop = new Population(cities, 30, 1.0, 9);
+    pop.setWorkers(1);
+    pop.setElitism(elitism);
+    Recorder recorder = new Recorder(new TournamentSelection(2));
+    pop.setSelection(recorder);
+    
+    int best = pop.getBest().getFitness();
+    for (int gen = 0; gen < 300; gen++) {
+      pop.evolve(1);
+      assertTrue(pop.getBest().getFitness() <= best);
+      best = pop.getBest().getFitness();
+      assertEquals(best, pop.getBest().getDistance());
+    }
+    // the generations as the selection saw them
+    List<int[]> generations = recorder.generations;
+    for (int gen = 1; gen < generations.size(); gen++) {
+      int[] before = generations.get(gen - 1).clone();
+      Arrays.sort(before);
+      List<Integer> after = new ArrayList<>();
+      for (int f : generations.get(gen)) {
+        after.add(f);
+      }
+      for (int i = 0; i < elitism; i++) {
+        assertTrue("generation " + gen, after.remove((Integer)before[i]));
+      }
+    }
+  }
+  
+  /**
+   * Passes everything on to another selection, keeping a copy of the
+   * fitness of every generation.
+   */
+  private static final class Recorder implements Selection {
+    final Selection selection;
+    final List<int[]> generations = new ArrayList<>();
+    
+    Recorder(Selection selection) {
+      this.selection = selection;
+    }
+    
+    @Override
+    public void prepare(int[] fitness) {
+      generations.add(fitness.clone());
+      selection.prepare(fitness);
+    }
+    
+    @Override
+    public int select(int[] fitness, SplittableRandom rand) {
+      return selection.select(fitness, rand);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+import java.util.Random;
+import java.util.SplittableRandom;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that crossing and mutating keep the tour a permutation and the
+ * fitness they work out from the changed edges equal to the distance.
+ */
+public class SolutionTest {
+  private static final int ROUNDS = 20000;
+  private static final SplittableRandom RAND = new SplittableRandom(7);
+  
+  @Test
+  public void crossesEverySection() {
+    for (int n : new int[] {3, 4, 9, 20}) {
+      for (CityTable cities : tables(n, n)) {
+        Solution a = random(cities);
+        Solution b = random(cities);
+        Solution child = new Solution(cities);
+        for (int start = 0; start < n; start++) {
+          for (int end = start; end <= n; end++) {
+            child.cross(a, b, start, end);
+            assertValid(child, n);
+            assertEquals("crossing " + start + " to " + end,
+                    child.getDistance(), child.getFitness());
+          }
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void swapsEveryPairOfIndices() {
+    for (int n : new int[] {3, 4, 9, 20}) {
+      for (CityTable cities : tables(n, n)) {
+        Solution a = random(cities);
+        Solution child = new Solution(cities);
+        for (int first = 0; first < n; first++) {
+          for (int second = 0; second < n; second++) {
+            if (first == second) {
+              continue;
+            }
+            // a copy of a
+            child.cross(a, a, 0, 0);
+            child.mutate(first, second);
+            assertValid(child, n);
+            assertEquals("swapping " + first + " and " + second,
+                    child.getDistance(), child.getFitness());
+            child.mutate(second, first);
+            assertEquals(a.toString(), child.toString());
+            assertEquals(a.getFitness(), child.getFitness());
+          }
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void keepsTheFitnessOverManyGenerations() {
+    Random random = new Random(42);
+    for (CityTable cities : tables(50, 42)) {
+      int n = cities.getNumCities();
+      Solution[] population = new Solution[8];
+      for (int i = 0; i < population.length; i++) {
+        population[i] = random(cities);
+      }
+      for (int round = 0; round < ROUNDS; round++) {
+        Solution a = population[random.nextInt(population.length)];
+        Solution b = population[random.nextInt(population.length)];
+        Solution child = new Solution(cities);
+        int start = random.nextInt(n / 2);
+        child.cross(a, b, start, start + random.nextInt(n / 2));
+        for (int i = random.nextInt(3); i > 0; i--) {
+          int first = random.nextInt(n);
+          // next to first half of the time, wrapping around
+          int second = random.nextBoolean() ? (first + 1) % n
+                  : random.nextInt(n);
+          if (second != first) {
+            child.mutate(first, second);
+          }
+        }
+        assertValid(child, n);
+        assertEquals("round " + round, child.getDistance(),
+                child.getFitness());
+        population[random.nextInt(population.length)] = child;
+      }
+    }
+  }
+  
+  /**
+   * A random symmetric table and a random asymmetric one.
+   */
+  private static CityTable[] tables(int n, long seed) {
+    Random random = new Random(seed);
+    DistanceStore store = DistanceStore.allocate((long)n * n, 1000);
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        store.set((long)i * n + j, i == j ? 0 : 1 + random.nextInt(1000));
+      }
+    }
+    return new CityTable[] {CityTable.generateRandom(n),
+      new MatrixCityTable(n, store)};
+  }
+  
+  private static Solution random(CityTable cities) {
+    Solution solution = new Solution(cities);
+    solution.generateRandom(RAND);
+    solution.calculateFitness();
+    return solution;
+  }
+  
+  /**
+   * Checks the tour visits every city once, going by its printed form.
+   */
+  private static void assertValid(Solution solution, int n) {
+    String[] cities = solution.toString().split("->");
+    assertEquals(n + 1, cities.length);
+    assertEquals(cities[0], cities[n]);
+    boolean[] seen = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      int city = Integer.parseInt(cities[i]);
+      assertFalse(solution.toString(), seen[city]);
+      seen[city] = true;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the service on a free loopback port with a single slot and checks
+ * the answers it gives.
+ */
+public class SolveServiceTest {
+  private SolveService service;
+  private byte[] ts20;
+  
+  @Before
+  public void setUp() throws IOException {
+    service = new SolveService(1, 0, 1 << 20);
+    service.start(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+            0));
+    ts20 = Files.readAllBytes(Paths.get("data/ts20.dat"));
+  }
+  
+  @After
+  public void tearDown() {
+    service.stop();
+  }
+  
+  @Test
+  public void solvesATableSentAsTheBody() throws IOException {
+    Response response = post("/solve?solver=held-karp", ts20);
+    assertEquals(200, response.status);
+    assertTrue(response.body, response.body.contains("\"distance\":33"));
+  }
+  
+  @Test
+  public void rejectsInvalidRequests() throws IOException {
+    assertEquals(400, post("/solve", "not a table".getBytes(
+            StandardCharsets.UTF_8)).status);
+    assertEquals(400, post("/solve", new byte[0]).status);
+    assertEquals(400, post("/solve?solver=genetic&generations=0",
+            ts20).status);
+    assertEquals(400, post("/solve?solver=nonsense", ts20).status);
+  }
+  
+  @Test
+  public void answersUnknownTablesWithNotFound() throws IOException {
+    Response response = post("/solve?table=0123abcd", new byte[0]);
+    assertEquals(404, response.status);
+  }
+  
+  @Test(timeout = 30000)
+  public void turnsRequestsAwayWhileEverySlotIsTaken() throws Exception {
+    ExecutorService client = Executors.newSingleThreadExecutor();
+    try {
+      Future<Response> slow = client.submit(
+              () -> post("/solve?solver=annealing&time=2", ts20));
+      while (!get("/status").body.contains("\"running\":1")) {
+        Thread.sleep(10);
+      }
+      
+      Response busy = post("/tables", ts20);
+      assertEquals(503, busy.status);
+      assertEquals("1", busy.retryAfter);
+      assertEquals(503, post("/solve?solver=held-karp", ts20).status);
+      
+      assertEquals(200, slow.get().status);
+      assertEquals(200, post("/solve?solver=held-karp", ts20).status);
+    }
+    finally {
+      client.shutdownNow();
+    }
+  }
+  
+  @Test(timeout = 30000)
+  public void answersQueuedSolvesWhenStopped() throws Exception {
+    // room for a solve to wait behind the running one
+    service.stop();
+    service = new SolveService(1, 1, 1 << 20);
+    service.start(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+            0));
+    ExecutorService client = Executors.newFixedThreadPool(2);
+    try {
+      client.submit(() -> post("/solve?solver=annealing&time=2", ts20));
+      while (!get("/status").body.contains("\"running\":1")) {
+        Thread.sleep(10);
+      }
+      Future<Response> queued = client.submit(
+              () -> post("/solve?solver=held-karp", ts20));
+      while (!get("/status").body.contains("\"queued\":1")) {
+        Thread.sleep(10);
+      }
+      
+      service.stop();
+      assertEquals(503, queued.get().status);
+    }
+    finally {
+      client.shutdownNow();
+    }
+  }
+  
+  /**
+   * The parts of a response the tests look at.
+   */
+  private static final class Response {
+    final int status;
+    final String body;
+    final String retryAfter;
+    
+    Response(HttpURLConnection connection) throws IOException {
+      status = connection.getResponseCode();
+      retryAfter = connection.getHeaderField("Retry-After");
+      InputStream in = status < 400 ? connection.getInputStream()
+              : connection.getErrorStream();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      if (in != null) {
+        try (InputStream stream = in) {
+          byte[] buffer = new byte[4096];
+          int read;
+          while ((read = stream.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+          }
+        }
+      }
+      body = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+  
+  private Response post(String path, byte[] body) throws IOException {
+    HttpURLConnection connection = open(path);
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setFixedLengthStreamingMode(body.length);
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body);
+    }
+    return new Response(connection);
+  }
+  
+  private Response get(String path) throws IOException {
+    return new Response(open(path));
+  }
+  
+  private HttpURLConnection open(String path) throws IOException {
+    URL url = new URL("http", InetAddress.getLoopbackAddress()
+            .getHostAddress(), service.getPort(), path);
+    return (HttpURLConnection)url.openConnection();
+  }
+}
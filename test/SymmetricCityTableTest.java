@@ -0,0 +1,79 @@
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the packed lower triangle is indexed the same way from either
+ * side of the diagonal.
+ */
+public class SymmetricCityTableTest {
+  private static final int CITIES = 40;
+  
+  @Test
+  public void indexesEachDistanceOnce() {
+    for (int n : new int[] {1, 2, 7, CITIES}) {
+      long next = 0;
+      for (int i = 0; i < n; i++) {
+        for (int j = 0; j <= i; j++) {
+          assertEquals(next++, SymmetricCityTable.index(i, j));
+        }
+      }
+      assertEquals(SymmetricCityTable.size(n), next);
+    }
+  }
+  
+  @Test
+  public void readsTheSameDistanceFromEitherSide() {
+    DistanceStore store = DistanceStore.allocate(
+            SymmetricCityTable.size(CITIES), DistanceStore.MAX_SHORT_DISTANCE);
+    for (int i = 0; i < CITIES; i++) {
+      for (int j = 0; j <= i; j++) {
+        store.set(SymmetricCityTable.index(i, j), distance(i, j));
+      }
+    }
+    CityTable table = new SymmetricCityTable(CITIES, store);
+    
+    for (int i = 0; i < CITIES; i++) {
+      assertEquals(0, table.getDistance(i, i));
+      for (int j = 0; j < CITIES; j++) {
+        assertEquals(i + " to " + j, distance(i, j),
+                table.getDistanceUnchecked(i, j));
+        assertEquals(table.getDistance(j, i), table.getDistance(i, j));
+      }
+    }
+  }
+  
+  @Test
+  public void copiesASymmetricMatrix() {
+    DistanceStore store = DistanceStore.allocate((long)CITIES * CITIES,
+            DistanceStore.MAX_SHORT_DISTANCE);
+    for (int i = 0; i < CITIES; i++) {
+      for (int j = 0; j < CITIES; j++) {
+        store.set((long)i * CITIES + j, distance(i, j));
+      }
+    }
+    CityTable matrix = new MatrixCityTable(CITIES, store);
+    
+    CityTable packed = SymmetricCityTable.copyOf(matrix);
+    assertTrue(packed.isSymmetric());
+    for (int i = 0; i < CITIES; i++) {
+      for (int j = 0; j < CITIES; j++) {
+        assertEquals(matrix.getDistance(i, j), packed.getDistance(i, j));
+      }
+    }
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void refusesAStoreOfTheWrongSize() {
+    new SymmetricCityTable(CITIES, DistanceStore.allocate(
+            (long)CITIES * CITIES, DistanceStore.MAX_SHORT_DISTANCE));
+  }
+  
+  /**
+   * A distance unique to each pair of cities.
+   */
+  private static int distance(int cityA, int cityB) {
+    int row = Math.max(cityA, cityB);
+    int column = Math.min(cityA, cityB);
+    return row == column ? 0 : row * 100 + column;
+  }
+}
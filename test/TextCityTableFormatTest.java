@@ -0,0 +1,114 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Parses well formed and malformed text tables and checks the positions
+ * reported for the problems.
+ */
+public class TextCityTableFormatTest {
+  @Test
+  public void parsesAWellFormedTable() throws CityTableFormatException {
+    CityTable table = parse("3\n0 1 2\n1 0 3\n2 3 0\n");
+    assertEquals(3, table.getNumCities());
+    assertEquals(1, table.getDistance(0, 1));
+    assertEquals(3, table.getDistance(1, 2));
+    assertEquals(2, table.getDistance(2, 0));
+  }
+  
+  @Test
+  public void packsASymmetricTable() throws CityTableFormatException {
+    CityTable table = parse("3\n0 1 2\n1 0 3\n2 3 0\n");
+    assertTrue(table instanceof SymmetricCityTable);
+    assertEquals(3, table.getDistance(2, 1));
+  }
+  
+  @Test
+  public void fallsBackToAMatrixWhenAsymmetric()
+          throws CityTableFormatException {
+    CityTable table = parse("3\n0 1 2\n1 0 3\n2 4 0\n");
+    assertTrue(table instanceof MatrixCityTable);
+    assertEquals(3, table.getDistance(1, 2));
+    assertEquals(4, table.getDistance(2, 1));
+  }
+  
+  @Test
+  public void keepsTheMatrixWhenDeclaredAsymmetric()
+          throws CityTableFormatException {
+    CityTable table = parse("3\n0 1 2\n1 0 3\n2 3 0\n",
+            CityTable.Symmetry.ASYMMETRIC);
+    assertTrue(table instanceof MatrixCityTable);
+  }
+  
+  @Test
+  public void reportsAShortRow() {
+    assertError("Line 5, column 1: Expected 9 distances but found 8",
+            "3\n0 1 2\n1 0 3\n2 3\n");
+  }
+  
+  @Test
+  public void reportsANonNumericCell() {
+    assertError("Line 3, column 5: Expected a distance",
+            "3\n0 1 2\n1 0 x3\n2 3 0\n");
+  }
+  
+  @Test
+  public void reportsANegativeDistance() {
+    assertError("Line 2, column 3: Invalid distance from 0 to 1",
+            "3\n0 -1 2\n1 0 3\n2 3 0\n");
+  }
+  
+  @Test
+  public void reportsANonZeroDiagonal() {
+    assertError("Line 3, column 3: Distance from city 1 to itself is not 0",
+            "3\n0 1 2\n1 5 3\n2 3 0\n");
+  }
+  
+  @Test
+  public void reportsAnInvalidHeader() {
+    assertError("Line 2, column 1: File format invalid", "\nthree\n0\n");
+  }
+  
+  @Test
+  public void reportsPositionsPastTheFirstRange() {
+    // large enough to be split into several ranges that are parsed apart
+    int n = 700;
+    StringBuilder text = new StringBuilder().append(n).append('\n');
+    long column = 0;
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        if (i == n - 1 && j == n - 1) {
+          column = text.length() - text.lastIndexOf("\n");
+        }
+        text.append(i == j ? i == n - 1 ? 7 : 0 : 10 + (i + j) % 90)
+                .append(' ');
+      }
+      text.append('\n');
+    }
+    assertTrue(text.length() > 1 << 20);
+    assertError("Line " + (n + 1) + ", column " + column + ": Distance from "
+            + "city " + (n - 1) + " to itself is not 0", text.toString());
+  }
+  
+  private static CityTable parse(String text)
+          throws CityTableFormatException {
+    return parse(text, CityTable.Symmetry.DETECT);
+  }
+  
+  private static CityTable parse(String text, CityTable.Symmetry symmetry)
+          throws CityTableFormatException {
+    return TextCityTableFormat.parse(ByteBuffer.wrap(
+            text.getBytes(StandardCharsets.US_ASCII)), symmetry);
+  }
+  
+  private static void assertError(String message, String text) {
+    try {
+      parse(text);
+      fail("parsed a malformed table");
+    }
+    catch (CityTableFormatException ex) {
+      assertEquals(message, ex.getMessage());
+    }
+  }
+}